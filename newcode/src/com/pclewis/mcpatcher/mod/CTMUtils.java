@@ -126,6 +126,8 @@ public class CTMUtils {
     };
 
     static TexturePackBase lastTexturePack;
+    static final Reloader reloader = new Reloader();
+    private static int lastTexturePackGeneration;
     static int terrainTexture;
     private static TileOverride blockOverrides[][];
     private static TileOverride tileOverrides[][];
@@ -218,11 +220,14 @@ public class CTMUtils {
 
     private static void checkUpdate() {
         TexturePackBase selectedTexturePack = MCPatcherUtils.getMinecraft().texturePackList.getSelectedTexturePack();
-        if (selectedTexturePack == lastTexturePack) {
+        if (selectedTexturePack == lastTexturePack && lastTexturePackGeneration == TexturePackTracker.getGeneration()) {
             return;
         }
         MCPatcherUtils.info("refreshing connected textures");
         lastTexturePack = selectedTexturePack;
+        lastTexturePackGeneration = TexturePackTracker.getGeneration();
+        TexturePackTracker.clearDependencies(MCPatcherUtils.CTM_UTILS_CLASS);
+        TexturePackTracker.addDependency(MCPatcherUtils.CTM_UTILS_CLASS, "/ctm/template.png", reloader);
         terrainTexture = getTexture("/terrain.png");
         if (Tessellator.instance instanceof SuperTessellator) {
             ((SuperTessellator) Tessellator.instance).clearTessellators();
@@ -329,8 +334,16 @@ public class CTMUtils {
             template = newImage;
         }
 
+        int[] terrainRGB = new int[width * height];
+        terrain.getRGB(0, 0, width, height, terrainRGB, 0, width);
+        int templateWidth = template.getWidth();
+        int templateHeight = template.getHeight();
+        int[] templateRGB = new int[templateWidth * templateHeight];
+        template.getRGB(0, 0, templateWidth, templateHeight, templateRGB, 0, templateWidth);
+        int[] outlineRGB = new int[templateRGB.length];
+
         for (int i = 0; i < tileOverrides.length; i++) {
-            TileOverride override = setupOutline(i, terrain, template);
+            TileOverride override = setupOutline(i, terrainRGB, width, templateRGB, templateWidth, templateHeight, outlineRGB);
             if (override != null) {
                 TileOverride[] oldList = tileOverrides[i];
                 if (oldList == null) {
@@ -345,7 +358,7 @@ public class CTMUtils {
         }
     }
 
-    private static TileOverride setupOutline(int tileNum, BufferedImage terrain, BufferedImage template) {
+    private static TileOverride setupOutline(int tileNum, int[] terrainRGB, int terrainWidth, int[] templateRGB, int templateWidth, int templateHeight, int[] outlineRGB) {
         switch (tileNum) {
             case TILE_NUM_STILL_LAVA: // still lava
             case TILE_NUM_FLOWING_LAVA: // flowing lava
@@ -360,20 +373,23 @@ public class CTMUtils {
                 break;
         }
 
-        int tileSize = terrain.getWidth() / 16;
+        int tileSize = terrainWidth / 16;
         int tileX = (tileNum % 16) * tileSize;
         int tileY = (tileNum / 16) * tileSize;
-        BufferedImage newImage = new BufferedImage(template.getWidth(), template.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        BufferedImage newImage = new BufferedImage(templateWidth, templateHeight, BufferedImage.TYPE_INT_ARGB);
 
-        for (int x = 0; x < template.getWidth(); x++) {
-            for (int y = 0; y < template.getHeight(); y++) {
-                int rgb = template.getRGB(x, y);
+        for (int y = 0; y < templateHeight; y++) {
+            int offset = y * templateWidth;
+            int terrainOffset = (tileY + (y % tileSize)) * terrainWidth + tileX;
+            for (int x = 0; x < templateWidth; x++) {
+                int rgb = templateRGB[offset + x];
                 if ((rgb & 0xff000000) == 0) {
-                    rgb = terrain.getRGB(tileX + (x % tileSize), tileY + (y % tileSize));
+                    rgb = terrainRGB[terrainOffset + (x % tileSize)];
                 }
-                newImage.setRGB(x, y, rgb);
+                outlineRGB[offset + x] = rgb;
             }
         }
+        newImage.setRGB(0, 0, templateWidth, templateHeight, outlineRGB, 0, templateWidth);
 
         return TileOverride.create(newImage);
     }
@@ -382,8 +398,7 @@ public class CTMUtils {
         if (name == null) {
             return -1;
         }
-        BufferedImage image = MCPatcherUtils.readImage(lastTexturePack.getInputStream(name));
-        if (image == null) {
+        if (MCPatcherUtils.readImageSize(lastTexturePack.getInputStream(name)) == null) {
             return -1;
         } else {
             return MCPatcherUtils.getMinecraft().renderEngine.getTexture(name);
@@ -400,4 +415,12 @@ public class CTMUtils {
         }
         return c;
     }
+
+    static class Reloader implements TexturePackTracker.Listener {
+        public boolean resourceChanged(String resource) {
+            // tile images are reloaded through the RenderEngine; a properties change needs the overrides rebuilt
+            lastTexturePack = null;
+            return true;
+        }
+    }
 }
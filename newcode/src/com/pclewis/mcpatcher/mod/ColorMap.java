@@ -2,13 +2,32 @@ package com.pclewis.mcpatcher.mod;
 
 import com.pclewis.mcpatcher.MCPatcherUtils;
 
-final class ColorMap {
+final class ColorMap implements TexturePackTracker.Listener {
     private static final int COLORMAP_SIZE = 256;
     private static final float COLORMAP_SCALE = COLORMAP_SIZE - 1;
 
+    private static final int BLEND_GRID_SIZE = 16;
+    private static final int BLEND_CACHE_SIZE = 4;
+    private static final int RUNNING_BLEND_REFRESH = 200;
+
+    private static int blendGeneration;
+    private static float[] blendSamples = new float[0];
+    private static float[] blendRows = new float[0];
+
     private int[] map;
     private int mapDefault;
 
+    private final int[][] blendGrids = new int[BLEND_CACHE_SIZE][];
+    private final int[] blendGridI = new int[BLEND_CACHE_SIZE];
+    private final int[] blendGridK = new int[BLEND_CACHE_SIZE];
+    private final int[] blendGridGeneration = new int[BLEND_CACHE_SIZE];
+    private int nextBlendGrid;
+
+    private final float[] runningSum = new float[3];
+    private int runningI;
+    private int runningK;
+    private int runningAge = -1;
+
     static int getX(double temperature, double rainfall) {
         return (int) (COLORMAP_SCALE * (1.0 - Colorizer.clamp(temperature)));
     }
@@ -17,8 +36,8 @@ final class ColorMap {
         return (int) (COLORMAP_SCALE * (1.0 - Colorizer.clamp(rainfall) * Colorizer.clamp(temperature)));
     }
 
-    static float getBlockMetaKey(int blockID, int metadata) {
-        return blockID + (metadata & 0xff) / 256.0f;
+    static void clearBlendCache() {
+        blendGeneration++;
     }
 
     ColorMap(boolean useCustom, String filename, int defaultColor) {
@@ -37,6 +56,24 @@ final class ColorMap {
         }
         mapDefault = colorize(0xffffff, 0.5, 1.0);
         MCPatcherUtils.debug("using %s, default color %06x", filename, mapDefault);
+        TexturePackTracker.addDependency(MCPatcherUtils.COLORIZER_CLASS, filename, this);
+    }
+
+    public boolean resourceChanged(String resource) {
+        int[] newMap = MCPatcherUtils.getImageRGB(MCPatcherUtils.readImage(Colorizer.lastTexturePack.getInputStream(resource)));
+        if (newMap == null || newMap.length != COLORMAP_SIZE * COLORMAP_SIZE || map == null) {
+            return false;
+        }
+        map = newMap;
+        mapDefault = colorize(0xffffff, 0.5, 1.0);
+        runningAge = -1;
+        clearBlendCache();
+        MCPatcherUtils.debug("reloaded %s, default color %06x", resource, mapDefault);
+        return true;
+    }
+
+    void clearRunningBlend() {
+        runningAge = -1;
     }
 
     boolean isCustom() {
@@ -66,4 +103,137 @@ final class ColorMap {
     int colorize(int defaultColor, int i, int j, int k) {
         return colorize(defaultColor, BiomeHelper.instance.getTemperature(i, j, k), BiomeHelper.instance.getRainfall(i, j, k));
     }
+
+    // Blending is only enabled for 1.2 biomes, where the color of a column does not depend on j, so one
+    // blended 16x16 grid serves every block in a chunk column until the next clearBlendCache().
+    int colorizeWithBlending(int i, int j, int k, int radius, float scale) {
+        int i0 = i & ~(BLEND_GRID_SIZE - 1);
+        int k0 = k & ~(BLEND_GRID_SIZE - 1);
+        int[] grid = null;
+        for (int n = 0; n < BLEND_CACHE_SIZE; n++) {
+            if (blendGrids[n] != null && blendGridGeneration[n] == blendGeneration && blendGridI[n] == i0 && blendGridK[n] == k0) {
+                grid = blendGrids[n];
+                break;
+            }
+        }
+        if (grid == null) {
+            int n = nextBlendGrid;
+            nextBlendGrid = (n + 1) % BLEND_CACHE_SIZE;
+            if (blendGrids[n] == null) {
+                blendGrids[n] = new int[BLEND_GRID_SIZE * BLEND_GRID_SIZE];
+            }
+            grid = blendGrids[n];
+            computeBlendGrid(grid, i0, j, k0, radius, scale);
+            blendGridI[n] = i0;
+            blendGridK[n] = k0;
+            blendGridGeneration[n] = blendGeneration;
+        }
+        return grid[BLEND_GRID_SIZE * (k - k0) + (i - i0)];
+    }
+
+    private void computeBlendGrid(int[] grid, int i0, int j, int k0, int radius, float scale) {
+        final int size = BLEND_GRID_SIZE + 2 * radius;
+        final int window = 2 * radius + 1;
+        if (blendSamples.length < 3 * size * size) {
+            blendSamples = new float[3 * size * size];
+            blendRows = new float[3 * size * BLEND_GRID_SIZE];
+        }
+        final float[] samples = blendSamples;
+        final float[] rows = blendRows;
+        for (int dk = 0; dk < size; dk++) {
+            for (int di = 0; di < size; di++) {
+                int rgb = colorize(0xffffff, i0 - radius + di, j, k0 - radius + dk);
+                int offset = 3 * (size * dk + di);
+                samples[offset] = (float) (rgb & 0xff0000) / (float) 0xff0000;
+                samples[offset + 1] = (float) (rgb & 0xff00) / (float) 0xff00;
+                samples[offset + 2] = (float) (rgb & 0xff) / (float) 0xff;
+            }
+        }
+        for (int dk = 0; dk < size; dk++) {
+            for (int di = 0; di < BLEND_GRID_SIZE; di++) {
+                float r = 0.0f;
+                float g = 0.0f;
+                float b = 0.0f;
+                for (int w = 0, offset = 3 * (size * dk + di); w < window; w++, offset += 3) {
+                    r += samples[offset];
+                    g += samples[offset + 1];
+                    b += samples[offset + 2];
+                }
+                int offset = 3 * (BLEND_GRID_SIZE * dk + di);
+                rows[offset] = r;
+                rows[offset + 1] = g;
+                rows[offset + 2] = b;
+            }
+        }
+        for (int dk = 0; dk < BLEND_GRID_SIZE; dk++) {
+            for (int di = 0; di < BLEND_GRID_SIZE; di++) {
+                float r = 0.0f;
+                float g = 0.0f;
+                float b = 0.0f;
+                for (int w = 0, offset = 3 * (BLEND_GRID_SIZE * dk + di); w < window; w++, offset += 3 * BLEND_GRID_SIZE) {
+                    r += rows[offset];
+                    g += rows[offset + 1];
+                    b += rows[offset + 2];
+                }
+                grid[BLEND_GRID_SIZE * dk + di] = ((int) (255.0f * r * scale)) << 16 | ((int) (255.0f * g * scale)) << 8 | (int) (255.0f * b * scale);
+            }
+        }
+    }
+
+    // Keeps a running sum of the (2*radius+1)^2 neighborhood around the last position. Moving to an adjacent
+    // block only adds and removes one edge; the sum is rebuilt periodically to pick up newly loaded biome data
+    // and to discard accumulated rounding error.
+    void colorizeAround(int i, int j, int k, int radius, float scale, float[] rgb) {
+        if (runningAge < 0 || runningAge >= RUNNING_BLEND_REFRESH || Math.abs(i - runningI) + Math.abs(k - runningK) > radius) {
+            runningSum[0] = 0.0f;
+            runningSum[1] = 0.0f;
+            runningSum[2] = 0.0f;
+            for (int di = -radius; di <= radius; di++) {
+                addRunningColumn(i + di, j, k, radius, 1.0f);
+            }
+            runningI = i;
+            runningK = k;
+            runningAge = 0;
+        } else {
+            for (; runningI < i; runningI++) {
+                addRunningColumn(runningI - radius, j, runningK, radius, -1.0f);
+                addRunningColumn(runningI + radius + 1, j, runningK, radius, 1.0f);
+            }
+            for (; runningI > i; runningI--) {
+                addRunningColumn(runningI + radius, j, runningK, radius, -1.0f);
+                addRunningColumn(runningI - radius - 1, j, runningK, radius, 1.0f);
+            }
+            for (; runningK < k; runningK++) {
+                addRunningRow(runningI, j, runningK - radius, radius, -1.0f);
+                addRunningRow(runningI, j, runningK + radius + 1, radius, 1.0f);
+            }
+            for (; runningK > k; runningK--) {
+                addRunningRow(runningI, j, runningK + radius, radius, -1.0f);
+                addRunningRow(runningI, j, runningK - radius - 1, radius, 1.0f);
+            }
+            runningAge++;
+        }
+        rgb[0] = runningSum[0] * scale;
+        rgb[1] = runningSum[1] * scale;
+        rgb[2] = runningSum[2] * scale;
+    }
+
+    private void addRunningColumn(int i, int j, int k, int radius, float sign) {
+        for (int dk = -radius; dk <= radius; dk++) {
+            addRunningSample(i, j, k + dk, sign);
+        }
+    }
+
+    private void addRunningRow(int i, int j, int k, int radius, float sign) {
+        for (int di = -radius; di <= radius; di++) {
+            addRunningSample(i + di, j, k, sign);
+        }
+    }
+
+    private void addRunningSample(int i, int j, int k, float sign) {
+        int rgb = colorize(0xffffff, i, j, k);
+        runningSum[0] += sign * (float) (rgb & 0xff0000) / (float) 0xff0000;
+        runningSum[1] += sign * (float) (rgb & 0xff00) / (float) 0xff00;
+        runningSum[2] += sign * (float) (rgb & 0xff) / (float) 0xff;
+    }
 }
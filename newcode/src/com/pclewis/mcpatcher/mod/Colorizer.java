@@ -7,6 +7,7 @@ import org.lwjgl.opengl.GL11;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class Colorizer {
@@ -55,7 +56,7 @@ public class Colorizer {
     private static Properties properties;
     private static final ColorMap[] fixedColorMaps = new ColorMap[NUM_FIXED_COLOR_MAPS]; // bitmaps from FIXED_COLOR_MAPS
     private static ColorMap[] blockColorMaps; // bitmaps from palette.block.*
-    private static final HashMap<Float, ColorMap> blockMetaColorMaps = new HashMap<Float, ColorMap>(); // bitmaps from palette.block.*
+    private static ColorMap[][] blockMetaColorMaps; // bitmaps from palette.block.*, indexed by block id then metadata
     private static int lilypadColor; // lilypad
     private static float[] waterBaseColor; // particle.water
     private static float[] lavaDropColors; // /misc/lavadropcolor.png
@@ -87,18 +88,36 @@ public class Colorizer {
     private static final float blockBlendScale = getBlendScale(blockBlendRadius);
 
     static TexturePackBase lastTexturePack;
+    private static final Reloader reloader = new Reloader();
+    private static int lastTexturePackGeneration;
 
     private static final int LIGHTMAP_SIZE = 16;
     private static final float LIGHTMAP_SCALE = LIGHTMAP_SIZE - 1;
+    private static final float LIGHTMAP_QUANTUM = 256.0f;
+    private static final float LIGHTMAP_PIXEL_QUANTUM = 255.0f;
     private static HashMap<Integer, BufferedImage> lightmaps = new HashMap<Integer, BufferedImage>();
+    private static BufferedImage lightmapImage;
+    private static int[] lightmapImageRGB;
+    private static final int[] lightmapRGB = new int[LIGHTMAP_SIZE * LIGHTMAP_SIZE];
+    private static final float[] lightmapSunRGB = new float[3 * LIGHTMAP_SIZE];
+    private static final float[] lightmapTorchRGB = new float[3 * LIGHTMAP_SIZE];
+    private static final float[] lightmapPixelRGB = new float[3];
+    private static final float[] interpolateRGB0 = new float[3];
+    private static final float[] interpolateRGB1 = new float[3];
+    private static ByteBuffer lightmapBuffer;
+    private static int lightmapTexture = -1;
+    private static int lightmapSunKey;
+    private static int lightmapTorchKey;
+    private static int lightmapGammaKey;
+    private static boolean lightmapAnaglyph;
 
     public static final float[] setColor = new float[3];
     public static float[] waterColor;
     public static float[] portalColor = new float[]{1.0f, 0.3f, 0.9f};
 
-    private static final HashMap<Integer, String> entityNamesByID = new HashMap<Integer, String>();
-    private static final HashMap<Integer, Integer> spawnerEggShellColors = new HashMap<Integer, Integer>(); // egg.shell.*
-    private static final HashMap<Integer, Integer> spawnerEggSpotColors = new HashMap<Integer, Integer>(); // egg.spots.*
+    private static String[] entityNamesByID = new String[0];
+    private static int[] spawnerEggShellColors = new int[0]; // egg.shell.*
+    private static int[] spawnerEggSpotColors = new int[0]; // egg.spots.*
 
     private static final int CLOUDS_DEFAULT = 0;
     private static final int CLOUDS_FAST = 1;
@@ -109,6 +128,8 @@ public class Colorizer {
     private static boolean biomesLogged;
 
     private static Entity fogCamera;
+    private static IBlockAccess lastBlockAccess;
+    private static int lastWorldType;
 
     public static float[] netherFogColor;
     public static float[] endFogColor;
@@ -118,7 +139,8 @@ public class Colorizer {
 
     private static int[] xpOrbColors;
 
-    private static final HashMap<Integer, Integer> textColorMap = new HashMap<Integer, Integer>(); // text.*
+    private static int[] textColorKeys = new int[0]; // text.*, sorted
+    private static int[] textColorValues = new int[0];
     private static final int[] textCodeColors = new int[32]; // text.code.*
     private static int signTextColor; // text.sign
 
@@ -144,11 +166,14 @@ public class Colorizer {
 
     public static int colorizeBlock(Block block, int i, int j, int k, int metadata) {
         ColorMap colorMap = null;
-        if (!blockMetaColorMaps.isEmpty()) {
-            colorMap = blockMetaColorMaps.get(ColorMap.getBlockMetaKey(block.blockID, metadata));
-        }
-        if (colorMap == null && block.blockID >= 0 && block.blockID < blockColorMaps.length) {
-            colorMap = blockColorMaps[block.blockID];
+        if (block.blockID >= 0 && block.blockID < blockColorMaps.length) {
+            ColorMap[] metaColorMaps = blockMetaColorMaps[block.blockID];
+            if (metaColorMaps != null) {
+                colorMap = metaColorMaps[metadata & 0xff];
+            }
+            if (colorMap == null) {
+                colorMap = blockColorMaps[block.blockID];
+            }
         }
         return colorizeWithBlending(colorMap, 0xffffff, i, j, k);
     }
@@ -157,21 +182,7 @@ public class Colorizer {
         if (colorMap == null || !colorMap.isCustom() || !BiomeHelper.instance.useBlockBlending() || blockBlendRadius <= 0) {
             return defaultColor;
         }
-        float[] sum = new float[3];
-        float[] sample = new float[3];
-        for (int di = -blockBlendRadius; di <= blockBlendRadius; di++) {
-            for (int dk = -blockBlendRadius; dk <= blockBlendRadius; dk++) {
-                int rgb = colorMap.colorize(defaultColor, i + di, j, k + dk);
-                intToFloat3(rgb, sample);
-                sum[0] += sample[0];
-                sum[1] += sample[1];
-                sum[2] += sample[2];
-            }
-        }
-        sum[0] *= blockBlendScale;
-        sum[1] *= blockBlendScale;
-        sum[2] *= blockBlendScale;
-        return float3ToInt(sum);
+        return colorMap.colorizeWithBlending(i, j, k, blockBlendRadius, blockBlendScale);
     }
 
     public static int colorizeBlock(Block block) {
@@ -195,30 +206,22 @@ public class Colorizer {
         if (!useEggColors) {
             return defaultColor;
         }
-        Integer value = null;
-        HashMap<Integer, Integer> eggMap = (spots == 0 ? spawnerEggShellColors : spawnerEggSpotColors);
-        if (eggMap.containsKey(entityID)) {
-            value = eggMap.get(entityID);
-        } else if (entityNamesByID.containsKey(entityID)) {
-            String name = entityNamesByID.get(entityID);
-            if (name != null) {
-                int[] tmp = new int[]{defaultColor};
-                loadIntColor((spots == 0 ? "egg.shell." : "egg.spots.") + name, tmp, 0);
-                eggMap.put(entityID, tmp[0]);
-                value = tmp[0];
-            }
+        int[] eggColors = (spots == 0 ? spawnerEggShellColors : spawnerEggSpotColors);
+        if (entityID < 0 || entityID >= eggColors.length || eggColors[entityID] == COLOR_CODE_UNSET) {
+            return defaultColor;
+        } else {
+            return eggColors[entityID];
         }
-        return value == null ? defaultColor : value;
     }
 
     public static int colorizeText(int defaultColor) {
         int high = defaultColor & 0xff000000;
         defaultColor &= 0xffffff;
-        Integer newColor = textColorMap.get(defaultColor);
-        if (newColor == null) {
+        int index = textColorKeys.length == 0 ? -1 : Arrays.binarySearch(textColorKeys, defaultColor);
+        if (index < 0) {
             return high | defaultColor;
         } else {
-            return high | newColor;
+            return high | textColorValues[index];
         }
     }
 
@@ -260,16 +263,18 @@ public class Colorizer {
 
     public static boolean computeLightmap(EntityRenderer renderer, World world) {
         if (world == null || !useLightmaps) {
+            lightmapTexture = -1;
             return false;
         }
         int worldType = world.worldProvider.worldType;
-        String name = String.format(LIGHTMAP_FORMAT, worldType);
         BufferedImage image;
         if (lightmaps.containsKey(worldType)) {
             image = lightmaps.get(worldType);
         } else {
+            String name = String.format(LIGHTMAP_FORMAT, worldType);
             image = MCPatcherUtils.readImage(lastTexturePack.getInputStream(name));
             lightmaps.put(worldType, image);
+            TexturePackTracker.addDependency(MCPatcherUtils.COLORIZER_CLASS, name, reloader);
             if (image == null) {
                 MCPatcherUtils.debug("using default lighting for world %d", worldType);
             } else {
@@ -277,32 +282,46 @@ public class Colorizer {
             }
         }
         if (image == null) {
+            lightmapTexture = -1;
             return false;
         }
         int width = image.getWidth();
         int height = image.getHeight();
         if (height != 2 * LIGHTMAP_SIZE) {
-            MCPatcherUtils.error("%s must be exactly %d pixels high", name, 2 * LIGHTMAP_SIZE);
+            MCPatcherUtils.error("%s must be exactly %d pixels high", String.format(LIGHTMAP_FORMAT, worldType), 2 * LIGHTMAP_SIZE);
             lightmaps.put(worldType, null);
+            lightmapTexture = -1;
             return false;
         }
-        int[] origMap = new int[width * height];
-        image.getRGB(0, 0, width, height, origMap, 0, width);
-        int[] newMap = new int[LIGHTMAP_SIZE * LIGHTMAP_SIZE];
-        float sun = clamp(world.lightningFlash > 0 ? 1.0f : 7.0f / 6.0f * (world.getSunAngle(1.0f) - 0.2f)) * (width - 1);
-        float torch = clamp(renderer.torchFlickerX + 0.5f) * (width - 1);
-        float gamma = clamp(MCPatcherUtils.getMinecraft().gameSettings.gammaSetting);
-        float[] sunrgb = new float[3 * LIGHTMAP_SIZE];
-        float[] torchrgb = new float[3 * LIGHTMAP_SIZE];
-        float[] rgb = new float[3];
+
+        // sun and torch select a position along a row of the lightmap image.  Moving that position by 1/255 of a
+        // pixel changes the interpolated 8-bit color by at most one step, so smaller changes are not recomputed.
+        // gamma only blends the final color and is quantized to 1/256.
+        GameSettings gameSettings = MCPatcherUtils.getMinecraft().gameSettings;
+        float positionQuantum = LIGHTMAP_PIXEL_QUANTUM * (width - 1);
+        int sunKey = (int) (positionQuantum * clamp(world.lightningFlash > 0 ? 1.0f : 7.0f / 6.0f * (world.getSunAngle(1.0f) - 0.2f)));
+        int torchKey = (int) (positionQuantum * clamp(renderer.torchFlickerX + 0.5f));
+        int gammaKey = (int) (LIGHTMAP_QUANTUM * clamp(gameSettings.gammaSetting));
+        if (image == lightmapImage && renderer.lightmapTexture == lightmapTexture && gameSettings.anaglyph == lightmapAnaglyph &&
+            sunKey == lightmapSunKey && torchKey == lightmapTorchKey && gammaKey == lightmapGammaKey) {
+            return true;
+        }
+        if (image != lightmapImage) {
+            lightmapImageRGB = new int[width * height];
+            image.getRGB(0, 0, width, height, lightmapImageRGB, 0, width);
+        }
+        float sun = sunKey / LIGHTMAP_PIXEL_QUANTUM;
+        float torch = torchKey / LIGHTMAP_PIXEL_QUANTUM;
+        float gamma = gammaKey / LIGHTMAP_QUANTUM;
+        float[] rgb = lightmapPixelRGB;
         for (int i = 0; i < LIGHTMAP_SIZE; i++) {
-            interpolate(origMap, i * width, sun, sunrgb, 3 * i);
-            interpolate(origMap, (i + LIGHTMAP_SIZE) * width, torch, torchrgb, 3 * i);
+            interpolate(lightmapImageRGB, i * width, sun, lightmapSunRGB, 3 * i);
+            interpolate(lightmapImageRGB, (i + LIGHTMAP_SIZE) * width, torch, lightmapTorchRGB, 3 * i);
         }
         for (int s = 0; s < LIGHTMAP_SIZE; s++) {
             for (int t = 0; t < LIGHTMAP_SIZE; t++) {
                 for (int k = 0; k < 3; k++) {
-                    rgb[k] = clamp(sunrgb[3 * s + k] + torchrgb[3 * t + k]);
+                    rgb[k] = clamp(lightmapSunRGB[3 * s + k] + lightmapTorchRGB[3 * t + k]);
                 }
                 if (gamma != 0.0f) {
                     for (int k = 0; k < 3; k++) {
@@ -311,13 +330,39 @@ public class Colorizer {
                         rgb[k] = gamma * tmp + (1.0f - gamma) * rgb[k];
                     }
                 }
-                newMap[s * LIGHTMAP_SIZE + t] = 0xff000000 | float3ToInt(rgb);
+                lightmapRGB[s * LIGHTMAP_SIZE + t] = 0xff000000 | float3ToInt(rgb);
             }
         }
-        MCPatcherUtils.getMinecraft().renderEngine.createTextureFromBytes(newMap, LIGHTMAP_SIZE, LIGHTMAP_SIZE, renderer.lightmapTexture);
+        if (renderer.lightmapTexture == lightmapTexture && !gameSettings.anaglyph) {
+            uploadLightmap(renderer.lightmapTexture);
+        } else {
+            MCPatcherUtils.getMinecraft().renderEngine.createTextureFromBytes(lightmapRGB, LIGHTMAP_SIZE, LIGHTMAP_SIZE, renderer.lightmapTexture);
+        }
+        lightmapImage = image;
+        lightmapTexture = renderer.lightmapTexture;
+        lightmapAnaglyph = gameSettings.anaglyph;
+        lightmapSunKey = sunKey;
+        lightmapTorchKey = torchKey;
+        lightmapGammaKey = gammaKey;
         return true;
     }
 
+    private static void uploadLightmap(int texture) {
+        if (lightmapBuffer == null) {
+            lightmapBuffer = DirectBufferPool.allocate(4 * LIGHTMAP_SIZE * LIGHTMAP_SIZE);
+        }
+        lightmapBuffer.clear();
+        for (int argb : lightmapRGB) {
+            lightmapBuffer.put((byte) (argb >> 16));
+            lightmapBuffer.put((byte) (argb >> 8));
+            lightmapBuffer.put((byte) argb);
+            lightmapBuffer.put((byte) (argb >> 24));
+        }
+        lightmapBuffer.flip();
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+        GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, LIGHTMAP_SIZE, LIGHTMAP_SIZE, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, lightmapBuffer);
+    }
+
     public static boolean computeRedstoneWireColor(int current) {
         if (redstoneColor == null) {
             return false;
@@ -374,6 +419,17 @@ public class Colorizer {
 
     public static void setupBlockAccess(IBlockAccess blockAccess, boolean newBiomes) {
         checkUpdate();
+        ColorMap.clearBlendCache();
+        int worldType = blockAccess instanceof World ? ((World) blockAccess).worldProvider.worldType : 0;
+        if (blockAccess != lastBlockAccess || worldType != lastWorldType) {
+            lastBlockAccess = blockAccess;
+            lastWorldType = worldType;
+            for (ColorMap colorMap : fixedColorMaps) {
+                if (colorMap != null) {
+                    colorMap.clearRunningBlend();
+                }
+            }
+        }
         if (blockAccess == null) {
             BiomeHelper.instance = new BiomeHelper.Stub();
         } else if (newBiomes) {
@@ -399,25 +455,10 @@ public class Colorizer {
         if (index < 0 || index >= fixedColorMaps.length || fogCamera == null || !fixedColorMaps[index].isCustom()) {
             return false;
         }
-        float[] f = new float[3];
         int x = (int) fogCamera.posX;
         int y = (int) fogCamera.posY;
         int z = (int) fogCamera.posZ;
-        setColor[0] = 0.0f;
-        setColor[1] = 0.0f;
-        setColor[2] = 0.0f;
-        for (int i = -fogBlendRadius; i <= fogBlendRadius; i++) {
-            for (int j = -fogBlendRadius; j <= fogBlendRadius; j++) {
-                int rgb = colorizeBiome(0xffffff, index, x + i, y, z + j);
-                intToFloat3(rgb, f);
-                setColor[0] += f[0];
-                setColor[1] += f[1];
-                setColor[2] += f[2];
-            }
-        }
-        setColor[0] *= fogBlendScale;
-        setColor[1] *= fogBlendScale;
-        setColor[2] *= fogBlendScale;
+        fixedColorMaps[index].colorizeAround(x, y, z, fogBlendRadius, fogBlendScale, setColor);
         return true;
     }
 
@@ -476,7 +517,18 @@ public class Colorizer {
         //System.out.printf("egg.shell.%s=%06x\n", entityName, defaultShellColor);
         //System.out.printf("egg.spots.%s=%06x\n", entityName, defaultSpotColor);
         MCPatcherUtils.debug("setupSpawnerEgg #%d \"%s\" %06x %06x", entityID, entityName, defaultShellColor, defaultSpotColor);
-        entityNamesByID.put(entityID, entityName);
+        if (entityID < 0) {
+            return;
+        }
+        if (entityID >= entityNamesByID.length) {
+            String[] newNames = new String[entityID + 1];
+            System.arraycopy(entityNamesByID, 0, newNames, 0, entityNamesByID.length);
+            entityNamesByID = newNames;
+        }
+        entityNamesByID[entityID] = entityName;
+        if (lastTexturePack != null && useEggColors) {
+            loadEggColor(entityID);
+        }
     }
 
     public static boolean drawFancyClouds(boolean fancyGraphics) {
@@ -493,10 +545,16 @@ public class Colorizer {
     }
 
     private static void checkUpdate() {
-        if (lastTexturePack == MCPatcherUtils.getMinecraft().texturePackList.getSelectedTexturePack()) {
+        if (lastTexturePack == MCPatcherUtils.getMinecraft().texturePackList.getSelectedTexturePack() &&
+            lastTexturePackGeneration == TexturePackTracker.getGeneration()) {
             return;
         }
         lastTexturePack = MCPatcherUtils.getMinecraft().texturePackList.getSelectedTexturePack();
+        lastTexturePackGeneration = TexturePackTracker.getGeneration();
+        TexturePackTracker.clearDependencies(MCPatcherUtils.COLORIZER_CLASS);
+        for (String resource : new String[]{COLOR_PROPERTIES, REDSTONE_COLORS, STEM_COLORS, LAVA_DROP_COLORS, MYCELIUM_COLORS, XPORB_COLORS}) {
+            TexturePackTracker.addDependency(MCPatcherUtils.COLORIZER_CLASS, resource, reloader);
+        }
 
         reset();
         reloadColorProperties();
@@ -533,6 +591,9 @@ public class Colorizer {
         if (useTextColors) {
             reloadTextColors();
         }
+        if (useEggColors) {
+            reloadEggColors();
+        }
         if (useXPOrbColors) {
             reloadXPOrbColors();
         }
@@ -557,7 +618,7 @@ public class Colorizer {
         endSkyColor = 0x181818;
 
         blockColorMaps = new ColorMap[Block.blocksList.length];
-        blockMetaColorMaps.clear();
+        blockMetaColorMaps = new ColorMap[Block.blocksList.length][];
 
         lilypadColor = 0x208030;
         waterBaseColor = new float[]{0.2f, 0.3f, 1.0f};
@@ -568,8 +629,11 @@ public class Colorizer {
         redstoneColor = null;
         stemColors = null;
         lightmaps.clear();
-        spawnerEggShellColors.clear();
-        spawnerEggSpotColors.clear();
+        lightmapImage = null;
+        lightmapImageRGB = null;
+        lightmapTexture = -1;
+        spawnerEggShellColors = new int[0];
+        spawnerEggSpotColors = new int[0];
         cloudType = CLOUDS_DEFAULT;
         for (Potion potion : potions) {
             potion.color = potion.origColor;
@@ -582,7 +646,8 @@ public class Colorizer {
         EntitySheep.fleeceColorTable = EntitySheep.origFleeceColorTable.clone();
         myceliumColors = null;
         xpOrbColors = null;
-        textColorMap.clear();
+        textColorKeys = new int[0];
+        textColorValues = new int[0];
         for (int i = 0; i < textCodeColors.length; i++) {
             textCodeColors[i] = COLOR_CODE_UNSET;
         }
@@ -659,7 +724,13 @@ public class Colorizer {
                         break;
 
                     case 2:
-                        blockMetaColorMaps.put(ColorMap.getBlockMetaKey(tokensInt[0], tokensInt[1]), colorMap);
+                        if (tokensInt[0] < 0 || tokensInt[0] >= blockMetaColorMaps.length) {
+                            continue;
+                        }
+                        if (blockMetaColorMaps[tokensInt[0]] == null) {
+                            blockMetaColorMaps[tokensInt[0]] = new ColorMap[256];
+                        }
+                        blockMetaColorMaps[tokensInt[0]][tokensInt[1] & 0xff] = colorMap;
                         break;
 
                     default:
@@ -735,6 +806,7 @@ public class Colorizer {
                 textCodeColors[i + 16] = (textCodeColors[i] & 0xfcfcfc) >> 2;
             }
         }
+        TreeMap<Integer, Integer> textColors = new TreeMap<Integer, Integer>();
         for (Map.Entry<Object, Object> entry : properties.entrySet()) {
             if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
                 continue;
@@ -756,13 +828,53 @@ public class Colorizer {
                     oldColor = Integer.parseInt(key, 16);
                 }
                 newColor = Integer.parseInt(value, 16);
-                textColorMap.put(oldColor, newColor);
+                textColors.put(oldColor, newColor);
             } catch (NumberFormatException e) {
             }
         }
+        textColorKeys = new int[textColors.size()];
+        textColorValues = new int[textColors.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : textColors.entrySet()) {
+            textColorKeys[i] = entry.getKey();
+            textColorValues[i] = entry.getValue();
+            i++;
+        }
         signTextColor = loadIntColor("text.sign", 0);
     }
 
+    private static void reloadEggColors() {
+        spawnerEggShellColors = new int[entityNamesByID.length];
+        spawnerEggSpotColors = new int[entityNamesByID.length];
+        for (int i = 0; i < entityNamesByID.length; i++) {
+            String name = entityNamesByID[i];
+            if (name == null) {
+                spawnerEggShellColors[i] = COLOR_CODE_UNSET;
+                spawnerEggSpotColors[i] = COLOR_CODE_UNSET;
+            } else {
+                spawnerEggShellColors[i] = loadIntColor("egg.shell." + name, COLOR_CODE_UNSET);
+                spawnerEggSpotColors[i] = loadIntColor("egg.spots." + name, COLOR_CODE_UNSET);
+            }
+        }
+    }
+
+    private static void loadEggColor(int entityID) {
+        if (entityID >= spawnerEggShellColors.length) {
+            spawnerEggShellColors = growEggColors(spawnerEggShellColors, entityNamesByID.length);
+            spawnerEggSpotColors = growEggColors(spawnerEggSpotColors, entityNamesByID.length);
+        }
+        String name = entityNamesByID[entityID];
+        spawnerEggShellColors[entityID] = loadIntColor("egg.shell." + name, COLOR_CODE_UNSET);
+        spawnerEggSpotColors[entityID] = loadIntColor("egg.spots." + name, COLOR_CODE_UNSET);
+    }
+
+    private static int[] growEggColors(int[] oldColors, int length) {
+        int[] newColors = new int[length];
+        System.arraycopy(oldColors, 0, newColors, 0, oldColors.length);
+        Arrays.fill(newColors, oldColors.length, length, COLOR_CODE_UNSET);
+        return newColors;
+    }
+
     private static void reloadXPOrbColors() {
         xpOrbColors = MCPatcherUtils.getImageRGB(MCPatcherUtils.readImage(lastTexturePack.getInputStream(XPORB_COLORS)));
     }
@@ -885,8 +997,8 @@ public class Colorizer {
         } else {
             float xf = x - x0;
             float xg = 1.0f - xf;
-            float[] rgb0 = new float[3];
-            float[] rgb1 = new float[3];
+            float[] rgb0 = interpolateRGB0;
+            float[] rgb1 = interpolateRGB1;
             intToFloat3(map[offset1 + x0], rgb0);
             intToFloat3(map[offset1 + x1], rgb1);
             for (int i = 0; i < 3; i++) {
@@ -898,4 +1010,16 @@ public class Colorizer {
     private static float getBlendScale(int radius) {
         return 1.0f / ((2 * radius + 1) * (2 * radius + 1));
     }
+
+    static class Reloader implements TexturePackTracker.Listener {
+        public boolean resourceChanged(String resource) {
+            if (resource.startsWith("/environment/lightmap")) {
+                lightmaps.clear();
+            } else {
+                // everything else is read once in checkUpdate; rerun it without touching the rest of the pack
+                lastTexturePack = null;
+            }
+            return true;
+        }
+    }
 }
@@ -7,11 +7,13 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Properties;
 import java.util.Random;
 
-public class CustomAnimation {
+public class CustomAnimation implements TexturePackTracker.Listener {
     private static final String CLASS_NAME = CustomAnimation.class.getSimpleName();
 
     private static Random rand = new Random();
@@ -20,27 +22,44 @@ public class CustomAnimation {
     private final String textureName;
     private final String srcName;
     private final int textureID;
-    private final ByteBuffer imageData;
+    private int[] frames;
     private final int tileCount;
     private final int x;
     private final int y;
     private final int w;
     private final int h;
 
+    private final int imageFrames;
+    private boolean failed;
+
     private int currentFrame;
     private int currentDelay;
     private int numFrames;
+    private int lastFrame;
 
     private Delegate delegate;
 
     public static void updateAll() {
+        int boundTexture = -1;
         for (CustomAnimation animation : animations) {
-            animation.update();
+            boundTexture = animation.update(boundTexture);
         }
     }
 
     static void clear() {
         animations.clear();
+        FrameAtlas.clear();
+        TexturePackTracker.clearDependencies(MCPatcherUtils.CUSTOM_ANIMATION_CLASS);
+    }
+
+    static HashSet<String> getPendingResources() {
+        HashSet<String> resources = new HashSet<String>();
+        for (CustomAnimation animation : animations) {
+            if (animation.frames == null) {
+                resources.add(animation.srcName);
+            }
+        }
+        return resources;
     }
 
     static void addStrip(Properties properties) {
@@ -53,9 +72,8 @@ public class CustomAnimation {
             int w = Integer.parseInt(properties.getProperty("w", ""));
             int h = Integer.parseInt(properties.getProperty("h", ""));
             if (!"".equals(textureName) && !"".equals(srcName)) {
-                add(newStrip(textureName, tileCount, srcName, TextureUtils.getResourceAsBufferedImage(srcName), x, y, w, h, properties));
+                add(newStrip(textureName, tileCount, srcName, MCPatcherUtils.readImageSize(TextureUtils.getResourceAsStream(srcName)), x, y, w, h, properties));
             }
-        } catch (IOException e) {
         } catch (NumberFormatException e) {
         }
     }
@@ -68,15 +86,11 @@ public class CustomAnimation {
 
     static boolean addStrip(String textureName, String name, int tileNumber, int tileCount) {
         String srcName = "/anim/custom_" + name + ".png";
-        if (TextureUtils.hasResource(srcName)) {
-            try {
-                BufferedImage srcImage = TextureUtils.getResourceAsBufferedImage(srcName);
-                if (srcImage != null) {
-                    add(newStrip(textureName, tileCount, srcName, srcImage, (tileNumber % 16) * TileSize.int_size, (tileNumber / 16) * TileSize.int_size, TileSize.int_size, TileSize.int_size, null));
-                    return true;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (TextureUtils.hasAnimResource(srcName)) {
+            int[] srcSize = MCPatcherUtils.readImageSize(TextureUtils.getResourceAsStream(srcName));
+            if (srcSize != null) {
+                add(newStrip(textureName, tileCount, srcName, srcSize, (tileNumber % 16) * TileSize.int_size, (tileNumber / 16) * TileSize.int_size, TileSize.int_size, TileSize.int_size, null));
+                return true;
             }
         }
         return false;
@@ -84,12 +98,23 @@ public class CustomAnimation {
 
     private static void add(CustomAnimation animation) {
         if (animation != null) {
-            animations.add(animation);
+            // keep animations grouped by texture so that updateAll binds each texture at most once per tick
+            int i = animations.size();
+            while (i > 0 && animations.get(i - 1).textureID > animation.textureID) {
+                i--;
+            }
+            animations.add(i, animation);
+            if (animation.delegate instanceof Strip) {
+                TexturePackTracker.addDependency(MCPatcherUtils.CUSTOM_ANIMATION_CLASS, animation.srcName, animation);
+            }
             MCPatcherUtils.debug("new %s %s %dx%d -> %s @ %d,%d (%d frames)", CLASS_NAME, animation.srcName, animation.w, animation.h, animation.textureName, animation.x, animation.y, animation.numFrames);
         }
     }
 
-    private static CustomAnimation newStrip(String textureName, int tileCount, String srcName, BufferedImage srcImage, int x, int y, int w, int h, Properties properties) throws IOException {
+    private static CustomAnimation newStrip(String textureName, int tileCount, String srcName, int[] srcSize, int x, int y, int w, int h, Properties properties) {
+        if (srcSize == null) {
+            return null;
+        }
         if (x < 0 || y < 0 || w <= 0 || h <= 0 || tileCount <= 0) {
             MCPatcherUtils.error("%s: %s invalid dimensions x=%d,y=%d,w=%d,h=%d,count=%d", CLASS_NAME, srcName, x, y, w, h, tileCount);
             return null;
@@ -106,24 +131,18 @@ public class CustomAnimation {
             MCPatcherUtils.error("%s: %s invalid dimensions x=%d,y=%d,w=%d,h=%d,count=%d", CLASS_NAME, srcName, x, y, w, h, tileCount);
             return null;
         }
-        int width = srcImage.getWidth();
-        int height = srcImage.getHeight();
-        if (width != w) {
-            srcImage = TextureUtils.resizeImage(srcImage, w);
-            width = srcImage.getWidth();
-            height = srcImage.getHeight();
-        }
-        if (width != w || height < h) {
-            MCPatcherUtils.error("%s: %s dimensions %dx%d do not match %dx%d", CLASS_NAME, srcName, width, height, w, h);
+        // the strip is decoded the first time it plays, so only its size is read here
+        int height = getScaledHeight(srcSize[0], srcSize[1], w);
+        if (height < h) {
+            MCPatcherUtils.error("%s: %s dimensions %dx%d do not match %dx%d", CLASS_NAME, srcName, srcSize[0], srcSize[1], w, h);
             return null;
         }
-        ByteBuffer imageData = ByteBuffer.allocateDirect(4 * width * height);
-        int[] argb = new int[width * height];
-        byte[] rgba = new byte[4 * width * height];
-        srcImage.getRGB(0, 0, width, height, argb, 0, width);
-        ARGBtoRGBA(argb, rgba);
-        imageData.put(rgba);
-        return new CustomAnimation(srcName, textureName, textureID, tileCount, x, y, w, h, imageData, height / h, properties);
+        return new CustomAnimation(srcName, textureName, textureID, tileCount, x, y, w, h, height / h, properties);
+    }
+
+    private static int getScaledHeight(int width, int height, int newWidth) {
+        // same arithmetic as TextureUtils.resizeImage
+        return width == newWidth ? height : height * newWidth / width;
     }
 
     private static CustomAnimation newTile(String textureName, int tileCount, int tileNumber, int minScrollDelay, int maxScrollDelay) {
@@ -147,7 +166,7 @@ public class CustomAnimation {
         }
     }
 
-    private CustomAnimation(String srcName, String textureName, int textureID, int tileCount, int x, int y, int w, int h, ByteBuffer imageData, int numFrames, Properties properties) {
+    private CustomAnimation(String srcName, String textureName, int textureID, int tileCount, int x, int y, int w, int h, int numFrames, Properties properties) {
         this.srcName = srcName;
         this.textureName = textureName;
         this.textureID = textureID;
@@ -156,9 +175,10 @@ public class CustomAnimation {
         this.y = y;
         this.w = w;
         this.h = h;
-        this.imageData = imageData;
+        imageFrames = numFrames;
         this.numFrames = numFrames;
         currentFrame = -1;
+        lastFrame = -1;
         delegate = new Strip(properties);
     }
 
@@ -171,39 +191,112 @@ public class CustomAnimation {
         this.y = y;
         this.w = w;
         this.h = h;
-        this.imageData = ByteBuffer.allocateDirect(4 * w * h);
+        imageFrames = h;
         this.numFrames = h;
         currentFrame = -1;
+        lastFrame = -1;
         delegate = new Tile(minScrollDelay, maxScrollDelay);
     }
 
-    void update() {
-        if (--currentDelay > 0) {
-            return;
+    public boolean resourceChanged(String resource) {
+        if (!(delegate instanceof Strip)) {
+            return false;
+        }
+        if (frames == null) {
+            int[] srcSize = MCPatcherUtils.readImageSize(TextureUtils.getResourceAsStream(srcName));
+            // not decoded yet, the new image is picked up when the strip first plays
+            return srcSize != null && getScaledHeight(srcSize[0], srcSize[1], w) / h == imageFrames;
+        }
+        if (!readStrip()) {
+            // frame count changed, tile order and delays have to be rebuilt
+            return false;
+        }
+        lastFrame = -1;
+        MCPatcherUtils.debug("reloaded %s %s", CLASS_NAME, srcName);
+        return true;
+    }
+
+    private boolean readStrip() {
+        try {
+            BufferedImage srcImage = TextureUtils.getResourceAsBufferedImage(srcName);
+            if (srcImage == null) {
+                return false;
+            }
+            if (srcImage.getWidth() != w) {
+                srcImage = TextureUtils.resizeImage(srcImage, w);
+            }
+            int width = srcImage.getWidth();
+            int height = srcImage.getHeight();
+            if (width != w || height / h != imageFrames) {
+                return false;
+            }
+            int[] argb = new int[w * h * imageFrames];
+            srcImage.getRGB(0, 0, w, h * imageFrames, argb, 0, w);
+            int frameSize = 4 * w * h;
+            ByteBuffer imageData = DirectBufferPool.allocate(frameSize * imageFrames);
+            ARGBtoRGBA(argb, imageData);
+            int[] newFrames = new int[imageFrames];
+            for (int i = 0; i < imageFrames; i++) {
+                imageData.position(i * frameSize);
+                newFrames[i] = FrameAtlas.add(imageData, frameSize);
+            }
+            DirectBufferPool.release(imageData);
+            if (frames != null) {
+                // after the new frames are added, so unchanged frames are shared rather than copied again
+                for (int frame : frames) {
+                    FrameAtlas.release(frame);
+                }
+            }
+            frames = newFrames;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    int update(int boundTexture) {
+        if (failed || --currentDelay > 0) {
+            return boundTexture;
         }
         if (++currentFrame >= numFrames) {
             currentFrame = 0;
         }
+        currentDelay = delegate.getDelay();
+        if (frames == null && !readStrip()) {
+            MCPatcherUtils.error("%s: could not load %s", CLASS_NAME, srcName);
+            failed = true;
+            return boundTexture;
+        }
+        int frame = delegate.getFrame();
+        if (frame < 0 || frame == lastFrame) {
+            return boundTexture;
+        }
+        lastFrame = frame;
+        if (textureID != boundTexture) {
+            GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+        }
         for (int i = 0; i < tileCount; i++) {
             for (int j = 0; j < tileCount; j++) {
-                delegate.update(i * w, j * h);
+                TextureUploader.texSubImage2D(textureID, GL11.GL_TEXTURE_2D, 0, x + i * w, y + j * h, w, h, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, delegate.getPixels(frame));
             }
         }
-        currentDelay = delegate.getDelay();
+        return textureID;
     }
 
-    static void ARGBtoRGBA(int[] src, byte[] dest) {
-        for (int i = 0; i < src.length; ++i) {
+    static void ARGBtoRGBA(int[] src, ByteBuffer dest) {
+        // direct buffers are big-endian, so RGBA byte order is the ARGB int rotated left by 8 bits
+        IntBuffer intBuffer = dest.asIntBuffer();
+        for (int i = 0; i < src.length; i++) {
             int v = src[i];
-            dest[(i * 4) + 3] = (byte) ((v >> 24) & 0xff);
-            dest[(i * 4) + 0] = (byte) ((v >> 16) & 0xff);
-            dest[(i * 4) + 1] = (byte) ((v >> 8) & 0xff);
-            dest[(i * 4) + 2] = (byte) ((v >> 0) & 0xff);
+            intBuffer.put((v << 8) | (v >>> 24));
         }
+        dest.position(dest.position() + 4 * src.length);
     }
 
     private interface Delegate {
-        public void update(int dx, int dy);
+        public int getFrame();
+
+        public ByteBuffer getPixels(int frame);
 
         public int getDelay();
     }
@@ -219,21 +312,28 @@ public class CustomAnimation {
             isScrolling = (this.minScrollDelay >= 0);
             BufferedImage tiles = TextureUtils.getResourceAsBufferedImage(textureName);
             int rgbInt[] = new int[w * h];
-            byte rgbByte[] = new byte[4 * w * h];
             tiles.getRGB(x, y, w, h, rgbInt, 0, w);
-            ARGBtoRGBA(rgbInt, rgbByte);
-            imageData.put(rgbByte);
+            // store the tile twice so that any scroll position is one contiguous w x h window
+            ByteBuffer imageData = DirectBufferPool.allocate(8 * w * h);
+            ARGBtoRGBA(rgbInt, imageData);
+            ARGBtoRGBA(rgbInt, imageData);
+            imageData.position(0);
+            frames = new int[]{FrameAtlas.add(imageData, 8 * w * h)};
+            DirectBufferPool.release(imageData);
         }
 
-        public void update(int dx, int dy) {
+        public int getFrame() {
             if (isScrolling) {
-                GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
-                int rowOffset = h - currentFrame;
-                GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x + dx, y + dy + h - rowOffset, w, rowOffset, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, (ByteBuffer) imageData.position(0));
-                GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x + dx, y + dy, w, h - rowOffset, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, (ByteBuffer) imageData.position(4 * w * rowOffset));
+                return 4 * w * (h - currentFrame);
+            } else {
+                return -1;
             }
         }
 
+        public ByteBuffer getPixels(int frame) {
+            return FrameAtlas.getBuffer(frames[0], frame);
+        }
+
         public int getDelay() {
             if (maxScrollDelay > 0) {
                 return rand.nextInt(maxScrollDelay - minScrollDelay + 1) + minScrollDelay;
@@ -253,7 +353,10 @@ public class CustomAnimation {
             InputStream inputStream = null;
             if (properties == null) {
                 try {
-                    inputStream = TextureUtils.getResourceAsStream(srcName.replaceFirst("\\.png$", ".properties"));
+                    String propertiesName = srcName.replaceFirst("\\.png$", ".properties");
+                    if (TextureUtils.hasAnimResource(propertiesName)) {
+                        inputStream = TextureUtils.getResourceAsStream(propertiesName);
+                    }
                     if (inputStream != null) {
                         properties = new Properties();
                         properties.load(inputStream);
@@ -328,9 +431,12 @@ public class CustomAnimation {
             return getIntValue(properties, prefix + index);
         }
 
-        public void update(int dx, int dy) {
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
-            GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x + dx, y + dy, w, h, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, (ByteBuffer) imageData.position(4 * w * h * tileOrder[currentFrame]));
+        public int getFrame() {
+            return frames[tileOrder[currentFrame]];
+        }
+
+        public ByteBuffer getPixels(int frame) {
+            return FrameAtlas.getBuffer(frame, 0);
         }
 
         public int getDelay() {
@@ -0,0 +1,107 @@
+package com.pclewis.mcpatcher.mod;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Pool of direct byte buffers in power-of-two size classes.  Direct buffers live outside the Java heap and are
+ * only freed when the GC finalizes them, which at high tile sizes can happen long after they were dropped.  Reusing
+ * them keeps native memory flat across texture pack changes.
+ */
+final public class DirectBufferPool {
+    private static final int MIN_SIZE_CLASS = 12; // 4KB
+    private static final int MAX_SIZE_CLASS = 30;
+    private static final int MAX_FREE_PER_CLASS = 4;
+
+    private static final ArrayList<ArrayList<ByteBuffer>> freeBuffers = new ArrayList<ArrayList<ByteBuffer>>();
+    private static final IdentityHashMap<ByteBuffer, Boolean> ownedBuffers = new IdentityHashMap<ByteBuffer, Boolean>(); // buffer -> is free
+    private static long allocatedBytes;
+    private static long peakBytes;
+
+    static {
+        for (int i = 0; i <= MAX_SIZE_CLASS; i++) {
+            freeBuffers.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    private DirectBufferPool() {
+    }
+
+    /**
+     * Get a big-endian direct buffer with at least the requested capacity, position 0 and limit set to size.
+     *
+     * @param size minimum capacity in bytes
+     * @return buffer
+     */
+    public static synchronized ByteBuffer allocate(int size) {
+        int sizeClass = getSizeClass(size);
+        ByteBuffer buffer;
+        if (sizeClass > MAX_SIZE_CLASS) {
+            buffer = ByteBuffer.allocateDirect(size);
+            addAllocated(size);
+        } else {
+            ArrayList<ByteBuffer> free = freeBuffers.get(sizeClass);
+            if (free.isEmpty()) {
+                buffer = ByteBuffer.allocateDirect(1 << sizeClass);
+                addAllocated(buffer.capacity());
+            } else {
+                buffer = free.remove(free.size() - 1);
+            }
+        }
+        ownedBuffers.put(buffer, false);
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.  The caller must not use it afterward.  Buffers that did not come from
+     * {@link #allocate(int)} and buffers that are already free are ignored.
+     *
+     * @param buffer buffer, may be null
+     */
+    public static synchronized void release(ByteBuffer buffer) {
+        Boolean isFree = ownedBuffers.get(buffer);
+        if (isFree == null || isFree) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int sizeClass = getSizeClass(capacity);
+        if (capacity == 1 << sizeClass && sizeClass <= MAX_SIZE_CLASS) {
+            ArrayList<ByteBuffer> free = freeBuffers.get(sizeClass);
+            if (free.size() < MAX_FREE_PER_CLASS) {
+                free.add(buffer);
+                ownedBuffers.put(buffer, true);
+                return;
+            }
+        }
+        ownedBuffers.remove(buffer);
+        allocatedBytes -= capacity;
+    }
+
+    public static synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public static synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    private static int getSizeClass(int size) {
+        int sizeClass = MIN_SIZE_CLASS;
+        while (sizeClass < 31 && (1 << sizeClass) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static void addAllocated(int size) {
+        allocatedBytes += size;
+        if (allocatedBytes > peakBytes) {
+            peakBytes = allocatedBytes;
+        }
+    }
+}
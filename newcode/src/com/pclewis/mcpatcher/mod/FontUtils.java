@@ -7,6 +7,8 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -19,6 +21,9 @@ public class FontUtils {
 
     private static final boolean showLines = false;
 
+    private static final int WIDTH_CACHE_SIZE = 512;
+    private static final HashMap<FontRenderer, WidthCache> widthCaches = new HashMap<FontRenderer, WidthCache>();
+
     private static Method getResource;
 
     static {
@@ -36,6 +41,7 @@ public class FontUtils {
 
     public static float[] computeCharWidths(String filename, BufferedImage image, int[] rgb, int[] charWidth) {
         MCPatcherUtils.debug("computeCharWidths(%s)", filename);
+        widthCaches.clear();
         float[] charWidthf = new float[charWidth.length];
         int width = image.getWidth();
         int height = image.getHeight();
@@ -44,27 +50,33 @@ public class FontUtils {
         for (int ch = 0; ch < charWidth.length; ch++) {
             int row = ch / COLS;
             int col = ch % COLS;
-            outer:
-            for (int colIdx = colWidth - 1; colIdx >= 0; colIdx--) {
-                int x = col * colWidth + colIdx;
-                for (int rowIdx = 0; rowIdx < rowHeight; rowIdx++) {
-                    int y = row * rowHeight + rowIdx;
-                    int pixel = rgb[x + y * width];
-                    if (isOpaque(pixel)) {
-                        if (printThis(ch)) {
-                            MCPatcherUtils.debug("'%c' pixel (%d, %d) = %08x, colIdx = %d", (char) ch, x, y, pixel, colIdx);
-                        }
-                        charWidthf[ch] = (128.0f * (float) (colIdx + 1)) / (float) width + 1.0f;
-                        if (showLines) {
-                            for (int i = 0; i < rowHeight; i++) {
-                                y = row * rowHeight + i;
-                                for (int j = 0; j < Math.max(colWidth / 16, 1); j++) {
-                                    image.setRGB(x + j, y, (i == rowIdx ? 0xff0000ff : 0xffff0000));
-                                    image.setRGB(col * colWidth + j, y, 0xff00ff00);
-                                }
-                            }
+            // scan each row of the glyph from the right, only looking at columns past the widest one found so far
+            int maxColIdx = -1;
+            int maxRowIdx = -1;
+            for (int rowIdx = 0; rowIdx < rowHeight && maxColIdx < colWidth - 1; rowIdx++) {
+                int offset = (row * rowHeight + rowIdx) * width + col * colWidth;
+                for (int colIdx = colWidth - 1; colIdx > maxColIdx; colIdx--) {
+                    if (isOpaque(rgb[offset + colIdx])) {
+                        maxColIdx = colIdx;
+                        maxRowIdx = rowIdx;
+                        break;
+                    }
+                }
+            }
+            if (maxColIdx >= 0) {
+                int x = col * colWidth + maxColIdx;
+                int y = row * rowHeight + maxRowIdx;
+                if (printThis(ch)) {
+                    MCPatcherUtils.debug("'%c' pixel (%d, %d) = %08x, colIdx = %d", (char) ch, x, y, rgb[x + y * width], maxColIdx);
+                }
+                charWidthf[ch] = (128.0f * (float) (maxColIdx + 1)) / (float) width + 1.0f;
+                if (showLines) {
+                    for (int i = 0; i < rowHeight; i++) {
+                        y = row * rowHeight + i;
+                        for (int j = 0; j < Math.max(colWidth / 16, 1); j++) {
+                            image.setRGB(x + j, y, (i == maxRowIdx ? 0xff0000ff : 0xffff0000));
+                            image.setRGB(col * colWidth + j, y, 0xff00ff00);
                         }
-                        break outer;
                     }
                 }
             }
@@ -104,6 +116,23 @@ public class FontUtils {
     }
 
     public static float getStringWidthf(FontRenderer fontRenderer, String s) {
+        if (s == null) {
+            return 0.0f;
+        }
+        WidthCache cache = widthCaches.get(fontRenderer);
+        if (cache == null || !cache.isValidFor(fontRenderer)) {
+            cache = new WidthCache(fontRenderer);
+            widthCaches.put(fontRenderer, cache);
+        }
+        Float width = cache.get(s);
+        if (width == null) {
+            width = computeStringWidthf(fontRenderer, s);
+            cache.put(s, width);
+        }
+        return width;
+    }
+
+    private static float computeStringWidthf(FontRenderer fontRenderer, String s) {
         float totalWidth = 0.0f;
         if (s != null) {
             boolean isLink = false;
@@ -129,12 +158,15 @@ public class FontUtils {
     }
 
     private static boolean isOpaque(int pixel) {
+        if (((pixel >> 24) & 0xf0) == 0) {
+            return false;
+        }
         for (int i : SPACERS) {
             if (pixel == i) {
                 return false;
             }
         }
-        return ((pixel >> 24) & 0xf0) > 0;
+        return true;
     }
 
     private static boolean printThis(int ch) {
@@ -200,4 +232,26 @@ public class FontUtils {
             MCPatcherUtils.close(is);
         }
     }
+
+    private static class WidthCache extends LinkedHashMap<String, Float> {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] charWidthf;
+        private final boolean isUnicode;
+
+        WidthCache(FontRenderer fontRenderer) {
+            super(16, 0.75f, true);
+            charWidthf = fontRenderer.charWidthf;
+            isUnicode = fontRenderer.isUnicode;
+        }
+
+        boolean isValidFor(FontRenderer fontRenderer) {
+            return charWidthf == fontRenderer.charWidthf && isUnicode == fontRenderer.isUnicode;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+            return size() > WIDTH_CACHE_SIZE;
+        }
+    }
 }
@@ -0,0 +1,199 @@
+package com.pclewis.mcpatcher.mod;
+
+import com.pclewis.mcpatcher.MCPatcherUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Shared storage for animation frames.  Frames are packed into a few large direct buffers and identical frames, e.g.,
+ * the repeated frames of a looping or back-and-forth animation, are stored only once.  Frames are reference counted;
+ * space from released frames is reclaimed by compacting the pages once it outweighs the live frames, and everything
+ * is released at once when the animations are reloaded.
+ */
+final class FrameAtlas {
+    private static final int PAGE_SIZE = 1 << 20;
+
+    private static final ArrayList<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+    private static final ArrayList<Frame> frames = new ArrayList<Frame>();
+    private static final HashMap<Long, Frame> framesByHash = new HashMap<Long, Frame>();
+    private static ByteBuffer currentPage;
+    private static int currentPageUsed;
+    private static int totalBytes;
+    private static int storedBytes;
+    private static int deadBytes;
+
+    private FrameAtlas() {
+    }
+
+    /**
+     * Store a frame.
+     *
+     * @param src    buffer positioned at the start of the frame; its position is not changed
+     * @param length frame size in bytes
+     * @return handle to pass to {@link #getBuffer(int, int)}
+     */
+    static int add(ByteBuffer src, int length) {
+        int start = src.position();
+        long hash = getHash(src, start, length);
+        totalBytes += length;
+        for (Frame frame = framesByHash.get(hash); frame != null; frame = frame.next) {
+            if (frame.length == length && equals(pages.get(frame.page), frame.offset, src, start, length)) {
+                frame.refs++;
+                return frame.handle;
+            }
+        }
+        Frame frame = new Frame(frames.size(), hash, length);
+        store(frame, src, start);
+        frame.next = framesByHash.get(hash);
+        framesByHash.put(hash, frame);
+        frames.add(frame);
+        storedBytes += length;
+        return frame.handle;
+    }
+
+    /**
+     * Get the buffer holding a frame, positioned at the given offset within the frame.  The buffer is shared, so it
+     * is only valid until the next call.
+     *
+     * @param handle frame handle from {@link #add(ByteBuffer, int)}
+     * @param offset byte offset within the frame
+     * @return buffer
+     */
+    static ByteBuffer getBuffer(int handle, int offset) {
+        Frame frame = frames.get(handle);
+        ByteBuffer page = pages.get(frame.page);
+        page.limit(frame.offset + frame.length);
+        page.position(frame.offset + offset);
+        return page;
+    }
+
+    /**
+     * Release one reference to a frame, e.g., when an edited animation strip is reloaded in place.  The handle must
+     * not be used afterward.
+     *
+     * @param handle frame handle from {@link #add(ByteBuffer, int)}
+     */
+    static void release(int handle) {
+        Frame frame = frames.get(handle);
+        if (frame == null || --frame.refs > 0) {
+            return;
+        }
+        Frame prev = null;
+        for (Frame f = framesByHash.get(frame.hash); f != null; prev = f, f = f.next) {
+            if (f == frame) {
+                if (prev != null) {
+                    prev.next = f.next;
+                } else if (f.next != null) {
+                    framesByHash.put(frame.hash, f.next);
+                } else {
+                    framesByHash.remove(frame.hash);
+                }
+                break;
+            }
+        }
+        frames.set(handle, null);
+        storedBytes -= frame.length;
+        deadBytes += frame.length;
+        if (deadBytes >= PAGE_SIZE && deadBytes > storedBytes) {
+            compact();
+        }
+    }
+
+    static void clear() {
+        if (!frames.isEmpty()) {
+            MCPatcherUtils.debug("%s: %d frames, %d bytes in %d pages (%d bytes before merging duplicates)",
+                FrameAtlas.class.getSimpleName(), frames.size(), storedBytes, pages.size(), totalBytes
+            );
+        }
+        for (ByteBuffer page : pages) {
+            DirectBufferPool.release(page);
+        }
+        pages.clear();
+        frames.clear();
+        framesByHash.clear();
+        currentPage = null;
+        currentPageUsed = 0;
+        totalBytes = 0;
+        storedBytes = 0;
+        deadBytes = 0;
+    }
+
+    private static void compact() {
+        ArrayList<ByteBuffer> oldPages = new ArrayList<ByteBuffer>(pages);
+        pages.clear();
+        currentPage = null;
+        currentPageUsed = 0;
+        for (Frame frame : frames) {
+            if (frame != null) {
+                store(frame, oldPages.get(frame.page), frame.offset);
+            }
+        }
+        for (ByteBuffer page : oldPages) {
+            DirectBufferPool.release(page);
+        }
+        MCPatcherUtils.debug("%s: reclaimed %d bytes, %d pages -> %d pages",
+            FrameAtlas.class.getSimpleName(), deadBytes, oldPages.size(), pages.size()
+        );
+        deadBytes = 0;
+    }
+
+    private static void store(Frame frame, ByteBuffer src, int start) {
+        ByteBuffer page = getPage(frame.length);
+        ByteBuffer copy = src.duplicate();
+        copy.limit(start + frame.length);
+        copy.position(start);
+        page.limit(page.capacity());
+        page.position(currentPageUsed);
+        page.put(copy);
+        frame.page = pages.size() - 1;
+        frame.offset = currentPageUsed;
+        currentPageUsed += frame.length;
+    }
+
+    private static ByteBuffer getPage(int length) {
+        if (currentPage != null && currentPage.capacity() - currentPageUsed >= length) {
+            return currentPage;
+        }
+        currentPage = DirectBufferPool.allocate(Math.max(length, PAGE_SIZE));
+        currentPageUsed = 0;
+        pages.add(currentPage);
+        return currentPage;
+    }
+
+    private static long getHash(ByteBuffer buffer, int start, int length) {
+        // 64-bit FNV-1a over whole ints; frames are always a multiple of 4 bytes
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < start + length; i += 4) {
+            hash ^= buffer.getInt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static boolean equals(ByteBuffer a, int aStart, ByteBuffer b, int bStart, int length) {
+        for (int i = 0; i < length; i += 4) {
+            if (a.getInt(aStart + i) != b.getInt(bStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Frame {
+        final int handle;
+        final long hash;
+        final int length;
+        int page;
+        int offset;
+        int refs = 1;
+        Frame next;
+
+        Frame(int handle, long hash, int length) {
+            this.handle = handle;
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+}
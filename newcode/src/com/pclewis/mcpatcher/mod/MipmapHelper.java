@@ -0,0 +1,192 @@
+package com.pclewis.mcpatcher.mod;
+
+import com.pclewis.mcpatcher.MCPatcherUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Optional mipmaps for tiled textures.  Each level is downsampled tile by tile, and the number of levels is limited
+ * so that a tile never shrinks below one texel, so colors from neighboring tiles never blend together.
+ */
+final public class MipmapHelper {
+    private static final boolean useMipmaps = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "mipmap", false);
+    private static final int maxMipmapLevel = MCPatcherUtils.getInt(MCPatcherUtils.HD_TEXTURES, "maxMipmapLevel", 4);
+    private static final int TILES_PER_ROW = 16;
+
+    private static final Map<BufferedImage, int[][]> mipmaps = Collections.synchronizedMap(new WeakHashMap<BufferedImage, int[][]>());
+    private static final HashMap<Integer, Integer> textureLevels = new HashMap<Integer, Integer>();
+
+    private static int[] scratch = new int[0];
+
+    private MipmapHelper() {
+    }
+
+    static boolean isMipmappedResource(String resource) {
+        return useMipmaps && (resource.equals("/terrain.png") || resource.equals("/gui/items.png") || resource.startsWith("/ctm/"));
+    }
+
+    /**
+     * Compute mipmaps for a freshly decoded image.  Called from the same code that resizes images, so this usually
+     * runs on one of the decoder threads.
+     *
+     * @param resource resource name
+     * @param image    full size image
+     */
+    static void generateMipmaps(String resource, BufferedImage image) {
+        if (!isMipmappedResource(resource)) {
+            return;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int levels = getMipmapLevels(width / TILES_PER_ROW, height);
+        if (levels <= 0) {
+            return;
+        }
+        int[][] data = new int[levels][];
+        int[] rgb = MCPatcherUtils.getImageRGB(image);
+        for (int level = 0; level < levels; level++) {
+            rgb = downsample(rgb, width, height);
+            width /= 2;
+            height /= 2;
+            data[level] = rgb;
+        }
+        MCPatcherUtils.debug("  generated %d mipmap levels for %s", levels, resource);
+        mipmaps.put(image, data);
+    }
+
+    /**
+     * Upload mipmaps after RenderEngine.setupTexture has uploaded the base level.
+     *
+     * @param image   base image
+     * @param texture GL texture, currently bound
+     */
+    public static void setupTexture(BufferedImage image, int texture) {
+        int[][] data = mipmaps.get(image);
+        if (data == null || MCPatcherUtils.getMinecraft().gameSettings.anaglyph) {
+            textureLevels.remove(texture);
+            return;
+        }
+        int internalFormat = GL11.glGetTexLevelParameteri(GL11.GL_TEXTURE_2D, 0, GL11.GL_TEXTURE_INTERNAL_FORMAT);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        for (int level = 0; level < data.length; level++) {
+            width /= 2;
+            height /= 2;
+            ByteBuffer buffer = toByteBuffer(data[level], width * height);
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, level + 1, internalFormat, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+            DirectBufferPool.release(buffer);
+        }
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, data.length);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST_MIPMAP_LINEAR);
+        textureLevels.put(texture, data.length);
+    }
+
+    /**
+     * Forget a texture when RenderEngine.deleteTexture frees its GL name.
+     *
+     * @param texture GL texture
+     */
+    static void deleteTexture(int texture) {
+        textureLevels.remove(texture);
+    }
+
+    static boolean isActive() {
+        return !textureLevels.isEmpty();
+    }
+
+    /**
+     * Bring the mipmaps of a texture up to date after a TextureFX or CustomAnimation update.  Only levels that the
+     * updated rectangle maps onto exactly are refreshed.
+     *
+     * @param texture GL texture, currently bound
+     */
+    static void update(int texture, int x, int y, int width, int height, ByteBuffer pixels) {
+        Integer levels = textureLevels.get(texture);
+        if (levels == null) {
+            return;
+        }
+        int size = width * height;
+        if (scratch.length < size) {
+            scratch = new int[size];
+        }
+        int[] rgb = scratch;
+        int position = pixels.position();
+        for (int i = 0; i < size; i++) {
+            int offset = position + 4 * i;
+            rgb[i] = ((pixels.get(offset + 3) & 0xff) << 24) |
+                ((pixels.get(offset) & 0xff) << 16) |
+                ((pixels.get(offset + 1) & 0xff) << 8) |
+                (pixels.get(offset + 2) & 0xff);
+        }
+        for (int level = 1; level <= levels; level++) {
+            if (width % 2 != 0 || height % 2 != 0 || x % 2 != 0 || y % 2 != 0) {
+                break;
+            }
+            rgb = downsample(rgb, width, height);
+            x /= 2;
+            y /= 2;
+            width /= 2;
+            height /= 2;
+            ByteBuffer buffer = toByteBuffer(rgb, width * height);
+            TextureUploader.texSubImage2D(texture, GL11.GL_TEXTURE_2D, level, x, y, width, height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+            DirectBufferPool.release(buffer);
+        }
+    }
+
+    private static int getMipmapLevels(int tileSize, int height) {
+        int levels = 0;
+        while (levels < maxMipmapLevel && tileSize > 1 && tileSize % 2 == 0 && height % 2 == 0) {
+            tileSize /= 2;
+            height /= 2;
+            levels++;
+        }
+        return levels;
+    }
+
+    private static int[] downsample(int[] rgb, int width, int height) {
+        int newWidth = width / 2;
+        int newHeight = height / 2;
+        int[] newRGB = new int[newWidth * newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            int row0 = 2 * y * width;
+            int row1 = row0 + width;
+            for (int x = 0; x < newWidth; x++) {
+                newRGB[y * newWidth + x] = average(rgb[row0 + 2 * x], rgb[row0 + 2 * x + 1], rgb[row1 + 2 * x], rgb[row1 + 2 * x + 1]);
+            }
+        }
+        return newRGB;
+    }
+
+    private static int average(int p00, int p01, int p10, int p11) {
+        // weight colors by alpha so that transparent pixels do not darken the edges of cutout textures
+        int a00 = p00 >>> 24;
+        int a01 = p01 >>> 24;
+        int a10 = p10 >>> 24;
+        int a11 = p11 >>> 24;
+        int a = a00 + a01 + a10 + a11;
+        if (a == 0) {
+            return 0;
+        }
+        int r = a00 * ((p00 >> 16) & 0xff) + a01 * ((p01 >> 16) & 0xff) + a10 * ((p10 >> 16) & 0xff) + a11 * ((p11 >> 16) & 0xff);
+        int g = a00 * ((p00 >> 8) & 0xff) + a01 * ((p01 >> 8) & 0xff) + a10 * ((p10 >> 8) & 0xff) + a11 * ((p11 >> 8) & 0xff);
+        int b = a00 * (p00 & 0xff) + a01 * (p01 & 0xff) + a10 * (p10 & 0xff) + a11 * (p11 & 0xff);
+        return ((a / 4) << 24) | ((r / a) << 16) | ((g / a) << 8) | (b / a);
+    }
+
+    private static ByteBuffer toByteBuffer(int[] rgb, int size) {
+        ByteBuffer buffer = DirectBufferPool.allocate(4 * size);
+        for (int i = 0; i < size; i++) {
+            int argb = rgb[i];
+            buffer.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb).put((byte) (argb >>> 24));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
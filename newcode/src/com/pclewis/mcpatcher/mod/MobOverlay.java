@@ -30,8 +30,8 @@ public class MobOverlay {
     private static boolean haveSnowman;
 
     static void reset(TexturePackBase texturePack) {
-        haveMooshroom = MCPatcherUtils.readImage(texturePack.getInputStream(MOOSHROOM_OVERLAY)) != null;
-        haveSnowman = MCPatcherUtils.readImage(texturePack.getInputStream(SNOWMAN_OVERLAY)) != null;
+        haveMooshroom = MCPatcherUtils.readImageSize(texturePack.getInputStream(MOOSHROOM_OVERLAY)) != null;
+        haveSnowman = MCPatcherUtils.readImageSize(texturePack.getInputStream(SNOWMAN_OVERLAY)) != null;
     }
 
     public static String setupMooshroom(Entity entity, String defaultTexture) {
@@ -7,10 +7,13 @@ import net.minecraft.src.TexturePackBase;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 
 public class MobRandomizer {
     private static final HashMap<String, ArrayList<String>> mobHash = new HashMap<String, ArrayList<String>>();
     private static TexturePackBase lastTexturePack;
+    private static Set<String> packResources;
+    private static int lastTexturePackGeneration;
 
     private static final long MULTIPLIER = 0x5deece66dL;
     private static final long ADDEND = 0xbL;
@@ -20,6 +23,17 @@ public class MobRandomizer {
         MCPatcherUtils.debug("reset random mobs list");
         mobHash.clear();
         MobOverlay.reset(lastTexturePack);
+        packResources = TexturePackTracker.getResources(lastTexturePack);
+        if (packResources != null) {
+            // resolve every mob skin in the pack now so that no mob has to look for files when it first appears
+            for (String resource : packResources) {
+                if (resource.startsWith("/mob/") && resource.endsWith(".png")) {
+                    getVariations(resource);
+                    getVariations(resource.replaceFirst("\\d+\\.png$", ".png"));
+                }
+            }
+            MCPatcherUtils.debug("found %d mob textures", mobHash.size());
+        }
     }
 
     public static String randomTexture(Entity entity) {
@@ -28,31 +42,34 @@ public class MobRandomizer {
 
     public static String randomTexture(Entity entity, String texture) {
         TexturePackBase selectedTexturePack = MCPatcherUtils.getMinecraft().texturePackList.getSelectedTexturePack();
-        if (lastTexturePack != selectedTexturePack) {
+        if (lastTexturePack != selectedTexturePack || lastTexturePackGeneration != TexturePackTracker.getGeneration()) {
             lastTexturePack = selectedTexturePack;
+            lastTexturePackGeneration = TexturePackTracker.getGeneration();
             reset();
         }
         if (lastTexturePack == null || !texture.startsWith("/mob/") || !texture.endsWith(".png")) {
             return texture;
         }
+        ArrayList<String> variations = getVariations(texture);
+        if (!entity.randomMobsSkinSet) {
+            entity.randomMobsSkin = getSkinId(entity.entityId);
+            entity.randomMobsSkinSet = true;
+        }
+        int index = (int) (entity.randomMobsSkin % variations.size());
+        if (index < 0) {
+            index += variations.size();
+        }
+        return variations.get(index);
+    }
+
+    private static ArrayList<String> getVariations(String texture) {
         ArrayList<String> variations = mobHash.get(texture);
         if (variations == null) {
             variations = new ArrayList<String>();
             variations.add(texture);
             for (int i = 2; ; i++) {
                 String s = texture.replace(".png", "" + i + ".png");
-                boolean hasResource = false;
-                InputStream inputStream = null;
-                try {
-                    inputStream = lastTexturePack.getInputStream(s);
-                    if (inputStream != null) {
-                        hasResource = true;
-                    }
-                } catch (Throwable e) {
-                } finally {
-                    MCPatcherUtils.close(inputStream);
-                }
-                if (hasResource) {
+                if (hasResource(s)) {
                     variations.add(s);
                 } else {
                     break;
@@ -63,15 +80,25 @@ public class MobRandomizer {
             }
             mobHash.put(texture, variations);
         }
-        if (!entity.randomMobsSkinSet) {
-            entity.randomMobsSkin = getSkinId(entity.entityId);
-            entity.randomMobsSkinSet = true;
+        return variations;
+    }
+
+    private static boolean hasResource(String resource) {
+        if (packResources != null) {
+            return packResources.contains(resource);
         }
-        int index = (int) (entity.randomMobsSkin % variations.size());
-        if (index < 0) {
-            index += variations.size();
+        boolean hasResource = false;
+        InputStream inputStream = null;
+        try {
+            inputStream = lastTexturePack.getInputStream(resource);
+            if (inputStream != null) {
+                hasResource = true;
+            }
+        } catch (Throwable e) {
+        } finally {
+            MCPatcherUtils.close(inputStream);
         }
-        return variations.get(index);
+        return hasResource;
     }
 
     private static long getSkinId(int entityId) {
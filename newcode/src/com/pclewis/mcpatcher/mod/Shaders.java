@@ -4,11 +4,13 @@
 
 package com.pclewis.mcpatcher.mod;
 
+import com.pclewis.mcpatcher.MCPatcherUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraft.src.Block;
 import net.minecraft.src.EntityLiving;
 import net.minecraft.src.ItemStack;
 import net.minecraft.src.RenderGlobal;
+import net.minecraft.src.TexturePackBase;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.ARBVertexProgram;
 import org.lwjgl.opengl.GL11;
@@ -21,6 +23,8 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import static org.lwjgl.opengl.ARBFragmentShader.GL_FRAGMENT_SHADER_ARB;
 import static org.lwjgl.opengl.ARBShaderObjects.*;
@@ -56,6 +60,12 @@ public class Shaders {
             System.out.println("Not enough draw buffers!");
         }
 
+        if (shadowPassInterval > 0 && shadowMapScale != 100) {
+            shadowMapWidth = Math.max(SHADOW_MAP_MIN_SIZE, shadowMapWidth * shadowMapScale / 100);
+            shadowMapHeight = Math.max(SHADOW_MAP_MIN_SIZE, shadowMapHeight * shadowMapScale / 100);
+            System.out.println("Scaled shadow map resolution: " + shadowMapWidth + "x" + shadowMapHeight);
+        }
+
         for (int i = 0; i < ProgramCount; ++i) {
             for (int n = i; programs[i] == 0; n = programBackups[n]) {
                 if (n == programBackups[n]) {
@@ -65,6 +75,20 @@ public class Shaders {
             }
         }
 
+        // uniform state belongs to the program object, so programs sharing a backup share a cache
+        programUniforms.clear();
+        for (int i = 0; i < ProgramCount; ++i) {
+            HashMap<String, Uniform> uniforms = null;
+            for (int j = 0; j < i; ++j) {
+                if (programs[j] == programs[i]) {
+                    uniforms = programUniforms.get(j);
+                    break;
+                }
+            }
+            programUniforms.add(uniforms == null ? new HashMap<String, Uniform>() : uniforms);
+        }
+        terrainTexturePack = null;
+
         dfbDrawBuffers = BufferUtils.createIntBuffer(colorAttachments);
         for (int i = 0; i < colorAttachments; ++i) {
             dfbDrawBuffers.put(i, GL_COLOR_ATTACHMENT0_EXT + i);
@@ -85,6 +109,7 @@ public class Shaders {
                 programs[i] = 0;
             }
         }
+        programUniforms.clear();
     }
 
     public static void glEnableWrapper(int cap) {
@@ -188,25 +213,31 @@ public class Shaders {
                 glTranslatef((float) x % 5.0f, (float) y % 5.0f, (float) z % 5.0f);
             }
 
-            shadowProjection = BufferUtils.createFloatBuffer(16);
+            if (shadowProjection == null) {
+                shadowProjection = BufferUtils.createFloatBuffer(16);
+                shadowProjectionInverse = BufferUtils.createFloatBuffer(16);
+                shadowModelView = BufferUtils.createFloatBuffer(16);
+                shadowModelViewInverse = BufferUtils.createFloatBuffer(16);
+            }
+
             glGetFloat(GL_PROJECTION_MATRIX, shadowProjection);
-            shadowProjectionInverse = invertMat4x(shadowProjection);
+            invertMat4x(shadowProjection, shadowProjectionInverse);
 
-            shadowModelView = BufferUtils.createFloatBuffer(16);
             glGetFloat(GL_MODELVIEW_MATRIX, shadowModelView);
-            shadowModelViewInverse = invertMat4x(shadowModelView);
+            invertMat4x(shadowModelView, shadowModelViewInverse);
             return;
         }
 
+        // the previous frame's matrices stay in the other buffer of each pair
         previousProjection = projection;
-        projection = BufferUtils.createFloatBuffer(16);
+        projection = (projection == projectionBuffers[0] ? projectionBuffers[1] : projectionBuffers[0]);
         glGetFloat(GL_PROJECTION_MATRIX, projection);
-        projectionInverse = invertMat4x(projection);
+        invertMat4x(projection, projectionInverse);
 
         previousModelView = modelView;
-        modelView = BufferUtils.createFloatBuffer(16);
+        modelView = (modelView == modelViewBuffers[0] ? modelViewBuffers[1] : modelViewBuffers[0]);
         glGetFloat(GL_MODELVIEW_MATRIX, modelView);
-        modelViewInverse = invertMat4x(modelView);
+        invertMat4x(modelView, modelViewInverse);
 
         previousCameraPosition[0] = cameraPosition[0];
         previousCameraPosition[1] = cameraPosition[1];
@@ -231,7 +262,11 @@ public class Shaders {
             resize();
         }
 
-        if (shadowPassInterval > 0 && --shadowPassCounter <= 0) {
+        long now = System.nanoTime();
+        long frameTime = (lastFrameStart == 0L ? 0L : now - lastFrameStart);
+        lastFrameStart = now;
+
+        if (shadowPassInterval > 0 && --shadowPassCounter <= 0 && isShadowUpdateNeeded(f, now, frameTime)) {
             // do shadow pass
             preShadowPassThirdPersonView = mc.gameSettings.thirdPersonView;
 
@@ -251,6 +286,12 @@ public class Shaders {
             isShadowPass = false;
 
             mc.gameSettings.thirdPersonView = preShadowPassThirdPersonView;
+
+            lastShadowUpdate = now;
+            lastShadowAngle = mc.getWorld().getCelestialAngle(f);
+            lastShadowX = mc.renderViewEntity.posX;
+            lastShadowY = mc.renderViewEntity.posY;
+            lastShadowZ = mc.renderViewEntity.posZ;
         }
 
         glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, dfb);
@@ -258,6 +299,40 @@ public class Shaders {
         useProgram(lightmapEnabled ? ProgramTexturedLit : ProgramTextured);
     }
 
+    private static boolean isShadowUpdateNeeded(float f, long now, long frameTime) {
+        if (lastShadowUpdate == 0L) {
+            return true;
+        }
+        long age = now - lastShadowUpdate;
+        if (age < shadowMinUpdateInterval) {
+            return false;
+        }
+        if (shadowFrameBudget > 0L && frameTime > shadowFrameBudget && age < SHADOW_MAX_AGE) {
+            // last frame was over budget, so keep the old shadow map for now
+            return false;
+        }
+        if (shadowAngleThreshold > 0.0f || shadowCameraThreshold > 0.0f) {
+            float angle = Math.abs(mc.getWorld().getCelestialAngle(f) - lastShadowAngle) * 360.0f;
+            double dx = mc.renderViewEntity.posX - lastShadowX;
+            double dy = mc.renderViewEntity.posY - lastShadowY;
+            double dz = mc.renderViewEntity.posZ - lastShadowZ;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if ((shadowAngleThreshold > 0.0f ? angle < shadowAngleThreshold : angle == 0.0f) &&
+                (shadowCameraThreshold > 0.0f ? distance < shadowCameraThreshold : distance == 0.0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static float getFloatOption(String tag, float defaultValue) {
+        try {
+            return Float.parseFloat(MCPatcherUtils.getString(MCPatcherUtils.GLSL_SHADERS, tag, defaultValue));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public static void endRender() {
         if (isShadowPass) {
             return;
@@ -380,12 +455,7 @@ public class Shaders {
 
     public static void beginTerrain() {
         useProgram(Shaders.ProgramTerrain);
-        glActiveTexture(GL_TEXTURE2);
-        glBindTexture(GL_TEXTURE_2D, mc.renderEngine.getTexture("/terrain_nh.png"));
-        glActiveTexture(GL_TEXTURE3);
-        glBindTexture(GL_TEXTURE_2D, mc.renderEngine.getTexture("/terrain_s.png"));
-        glActiveTexture(GL_TEXTURE0);
-        FloatBuffer projection = BufferUtils.createFloatBuffer(16);
+        bindTerrainTextures();
     }
 
     public static void endTerrain() {
@@ -394,10 +464,19 @@ public class Shaders {
 
     public static void beginWater() {
         useProgram(Shaders.ProgramWater);
+        bindTerrainTextures();
+    }
+
+    private static void bindTerrainTextures() {
+        if (terrainTexturePack != mc.texturePackList.getSelectedTexturePack()) {
+            terrainTexturePack = mc.texturePackList.getSelectedTexturePack();
+            terrainNormalTexture = mc.renderEngine.getTexture("/terrain_nh.png");
+            terrainSpecularTexture = mc.renderEngine.getTexture("/terrain_s.png");
+        }
         glActiveTexture(GL_TEXTURE2);
-        glBindTexture(GL_TEXTURE_2D, mc.renderEngine.getTexture("/terrain_nh.png"));
+        glBindTexture(GL_TEXTURE_2D, terrainNormalTexture);
         glActiveTexture(GL_TEXTURE3);
-        glBindTexture(GL_TEXTURE_2D, mc.renderEngine.getTexture("/terrain_s.png"));
+        glBindTexture(GL_TEXTURE_2D, terrainSpecularTexture);
         glActiveTexture(GL_TEXTURE0);
     }
 
@@ -540,45 +619,60 @@ public class Shaders {
         if (activeProgram == ProgramNone) {
             return;
         }
-        int uniform = glGetUniformLocationARB(programs[activeProgram], name);
-        glUniform1iARB(uniform, x);
+        Uniform uniform = getUniform(name);
+        if (uniform.location >= 0 && uniform.set(x, 0.0f, 0.0f, 0.0f)) {
+            glUniform1iARB(uniform.location, x);
+        }
     }
 
     public static void setProgramUniform1f(String name, float x) {
         if (activeProgram == ProgramNone) {
             return;
         }
-        int uniform = glGetUniformLocationARB(programs[activeProgram], name);
-        glUniform1fARB(uniform, x);
+        Uniform uniform = getUniform(name);
+        if (uniform.location >= 0 && uniform.set(0, x, 0.0f, 0.0f)) {
+            glUniform1fARB(uniform.location, x);
+        }
     }
 
     public static void setProgramUniform3f(String name, float x, float y, float z) {
         if (activeProgram == ProgramNone) {
             return;
         }
-        int uniform = glGetUniformLocationARB(programs[activeProgram], name);
-        glUniform3fARB(uniform, x, y, z);
+        Uniform uniform = getUniform(name);
+        if (uniform.location >= 0 && uniform.set(0, x, y, z)) {
+            glUniform3fARB(uniform.location, x, y, z);
+        }
     }
 
     public static void setProgramUniformMatrix4ARB(String name, boolean transpose, FloatBuffer matrix) {
         if (activeProgram == ProgramNone || matrix == null) {
             return;
         }
-        int uniform = glGetUniformLocation(programs[activeProgram], name);
-        glUniformMatrix4ARB(uniform, transpose, matrix);
+        Uniform uniform = getUniform(name);
+        if (uniform.location >= 0 && uniform.set(transpose, matrix)) {
+            glUniformMatrix4ARB(uniform.location, transpose, matrix);
+        }
+    }
+
+    private static Uniform getUniform(String name) {
+        HashMap<String, Uniform> uniforms = programUniforms.get(activeProgram);
+        Uniform uniform = uniforms.get(name);
+        if (uniform == null) {
+            uniform = new Uniform(glGetUniformLocationARB(programs[activeProgram], name));
+            uniforms.put(name, uniform);
+        }
+        return uniform;
     }
 
     public static void setCelestialPosition() {
         // This is called when the current matrix is the modelview matrix based on the celestial angle.
         // The sun is at (0, 100, 0), and the moon is at (0, -100, 0).
-        FloatBuffer modelView = BufferUtils.createFloatBuffer(16);
-        glGetFloat(GL_MODELVIEW_MATRIX, modelView);
-        float[] mv = new float[16];
-        modelView.get(mv, 0, 16);
-        float[] sunPos = multiplyMat4xVec4(mv, new float[]{0.0F, 100.0F, 0.0F, 0.0F});
-        sunPosition = sunPos;
-        float[] moonPos = multiplyMat4xVec4(mv, new float[]{0.0F, -100.0F, 0.0F, 0.0F});
-        moonPosition = moonPos;
+        glGetFloat(GL_MODELVIEW_MATRIX, celestialModelView);
+        celestialModelView.get(celestialMatrix, 0, 16);
+        celestialModelView.clear();
+        multiplyMat4xVec4(celestialMatrix, SUN_VECTOR, sunPosition);
+        multiplyMat4xVec4(celestialMatrix, MOON_VECTOR, moonPosition);
     }
 
     public static void glDrawArraysWrapper(int mode, int first, int count, ShortBuffer shortBuffer) {
@@ -607,18 +701,16 @@ public class Shaders {
         return result;
     }
 
-    private static float[] multiplyMat4xVec4(float[] ta, float[] tb) {
-        float[] mout = new float[4];
+    private static void multiplyMat4xVec4(float[] ta, float[] tb, float[] mout) {
         mout[0] = ta[0] * tb[0] + ta[4] * tb[1] + ta[8] * tb[2] + ta[12] * tb[3];
         mout[1] = ta[1] * tb[0] + ta[5] * tb[1] + ta[9] * tb[2] + ta[13] * tb[3];
         mout[2] = ta[2] * tb[0] + ta[6] * tb[1] + ta[10] * tb[2] + ta[14] * tb[3];
         mout[3] = ta[3] * tb[0] + ta[7] * tb[1] + ta[11] * tb[2] + ta[15] * tb[3];
-        return mout;
     }
 
-    private static FloatBuffer invertMat4x(FloatBuffer matin) {
-        float[] m = new float[16];
-        float[] inv = new float[16];
+    private static void invertMat4x(FloatBuffer matin, FloatBuffer invout) {
+        float[] m = invertMatrix;
+        float[] inv = invertInverse;
         float det;
         int i;
 
@@ -645,19 +737,17 @@ public class Shaders {
 
         det = m[0] * inv[0] + m[1] * inv[4] + m[2] * inv[8] + m[3] * inv[12];
 
-        FloatBuffer invout = BufferUtils.createFloatBuffer(16);
-
         if (det == 0.0) {
             // no inverse :(
-            return invout; // not actually the inverse
+            for (i = 0; i < 16; ++i) {
+                invout.put(i, 0.0f); // not actually the inverse
+            }
+            return;
         }
 
-
         for (i = 0; i < 16; ++i) {
             invout.put(i, inv[i] / det);
         }
-
-        return invout;
     }
 
     private static int createVertShader(String filename) {
@@ -884,13 +974,23 @@ public class Shaders {
 
     private static boolean isInitialized = false;
 
+    private static final ArrayList<HashMap<String, Uniform>> programUniforms = new ArrayList<HashMap<String, Uniform>>();
+
+    private static TexturePackBase terrainTexturePack;
+    private static int terrainNormalTexture;
+    private static int terrainSpecularTexture;
+
     private static int renderWidth = 0;
     private static int renderHeight = 0;
 
     private static Minecraft mc = null;
 
-    private static float[] sunPosition = new float[3];
-    private static float[] moonPosition = new float[3];
+    private static final float[] SUN_VECTOR = new float[]{0.0F, 100.0F, 0.0F, 0.0F};
+    private static final float[] MOON_VECTOR = new float[]{0.0F, -100.0F, 0.0F, 0.0F};
+    private static final float[] sunPosition = new float[4];
+    private static final float[] moonPosition = new float[4];
+    private static final FloatBuffer celestialModelView = BufferUtils.createFloatBuffer(16);
+    private static final float[] celestialMatrix = new float[16];
 
     private static float[] clearColor = new float[3];
 
@@ -899,15 +999,20 @@ public class Shaders {
 
     public static int entityAttrib = -1;
 
+    private static final FloatBuffer[] projectionBuffers = new FloatBuffer[]{BufferUtils.createFloatBuffer(16), BufferUtils.createFloatBuffer(16)};
+    private static final FloatBuffer[] modelViewBuffers = new FloatBuffer[]{BufferUtils.createFloatBuffer(16), BufferUtils.createFloatBuffer(16)};
+    private static final float[] invertMatrix = new float[16];
+    private static final float[] invertInverse = new float[16];
+
     private static FloatBuffer previousProjection = null;
 
     private static FloatBuffer projection = null;
-    private static FloatBuffer projectionInverse = null;
+    private static final FloatBuffer projectionInverse = BufferUtils.createFloatBuffer(16);
 
     private static FloatBuffer previousModelView = null;
 
     private static FloatBuffer modelView = null;
-    private static FloatBuffer modelViewInverse = null;
+    private static final FloatBuffer modelViewInverse = BufferUtils.createFloatBuffer(16);
 
     private static double[] previousCameraPosition = new double[3];
     private static double[] cameraPosition = new double[3];
@@ -922,7 +1027,27 @@ public class Shaders {
     private static float shadowMapHalfPlane = 30.0f;
     private static boolean shadowMapIsOrtho = true;
 
+    private static final int SHADOW_MAP_MIN_SIZE = 64;
+    private static final long SHADOW_MAX_AGE = 1000000000L;
+
+    // percentage applied to the SHADOWRES size requested by the shaders
+    private static final int shadowMapScale = Math.max(1, MCPatcherUtils.getInt(MCPatcherUtils.GLSL_SHADERS, "shadowMapScale", 100));
+    // 0 means update the shadow map as often as shadowPassInterval allows
+    private static final int shadowMaxUpdatesPerSecond = MCPatcherUtils.getInt(MCPatcherUtils.GLSL_SHADERS, "shadowMaxUpdatesPerSecond", 0);
+    private static final long shadowMinUpdateInterval = (shadowMaxUpdatesPerSecond > 0 ? 1000000000L / shadowMaxUpdatesPerSecond : 0L);
+    // degrees of sun movement and blocks of camera movement below which the previous shadow map is reused
+    private static final float shadowAngleThreshold = getFloatOption("shadowAngleThreshold", 0.0f);
+    private static final float shadowCameraThreshold = getFloatOption("shadowCameraThreshold", 0.0f);
+    // skip the shadow pass (for at most SHADOW_MAX_AGE) while frames take longer than this many milliseconds
+    private static final long shadowFrameBudget = (long) (getFloatOption("shadowFrameBudget", 0.0f) * 1000000.0f);
+
     private static int shadowPassCounter = 0;
+    private static long lastFrameStart;
+    private static long lastShadowUpdate;
+    private static float lastShadowAngle;
+    private static double lastShadowX;
+    private static double lastShadowY;
+    private static double lastShadowZ;
 
     private static int preShadowPassThirdPersonView;
 
@@ -995,4 +1120,54 @@ public class Shaders {
     };
 
     private static int[] programs = new int[ProgramCount];
+
+    private static class Uniform {
+        final int location;
+        private boolean valid;
+        private int intValue;
+        private float x;
+        private float y;
+        private float z;
+        private boolean transpose;
+        private float[] matrix;
+
+        Uniform(int location) {
+            this.location = location;
+        }
+
+        boolean set(int intValue, float x, float y, float z) {
+            if (valid && this.intValue == intValue && this.x == x && this.y == y && this.z == z) {
+                return false;
+            }
+            valid = true;
+            this.intValue = intValue;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            return true;
+        }
+
+        boolean set(boolean transpose, FloatBuffer matrix) {
+            if (this.matrix == null) {
+                this.matrix = new float[16];
+            } else if (valid && this.transpose == transpose) {
+                boolean same = true;
+                for (int i = 0; i < 16; i++) {
+                    if (this.matrix[i] != matrix.get(matrix.position() + i)) {
+                        same = false;
+                        break;
+                    }
+                }
+                if (same) {
+                    return false;
+                }
+            }
+            valid = true;
+            this.transpose = transpose;
+            for (int i = 0; i < 16; i++) {
+                this.matrix[i] = matrix.get(matrix.position() + i);
+            }
+            return true;
+        }
+    }
 }
@@ -18,19 +18,26 @@ public class SkyRenderer {
     private static double worldTime;
     private static float celestialAngle;
     private static float rainStrength;
+    private static double cosTime;
+    private static double sinTime;
+    private static int skyBoxList;
 
     private static final HashMap<Integer, WorldEntry> worldSkies = new HashMap<Integer, WorldEntry>();
     private static WorldEntry currentWorld;
     private static TexturePackBase lastTexturePack;
+    private static final Reloader reloader = new Reloader();
+    private static int lastTexturePackGeneration;
 
     public static boolean active;
 
     public static void setup(World world, RenderEngine renderEngine, float partialTick, float celestialAngle) {
         Minecraft minecraft = MCPatcherUtils.getMinecraft();
         TexturePackBase texturePack = minecraft.texturePackList.getSelectedTexturePack();
-        if (texturePack != lastTexturePack) {
+        if (texturePack != lastTexturePack || lastTexturePackGeneration != TexturePackTracker.getGeneration()) {
             lastTexturePack = texturePack;
+            lastTexturePackGeneration = TexturePackTracker.getGeneration();
             worldSkies.clear();
+            TexturePackTracker.clearDependencies(MCPatcherUtils.SKY_RENDERER_CLASS);
         }
         if (texturePack instanceof TexturePackDefault || Keyboard.isKeyDown(Keyboard.KEY_MULTIPLY)) {
             active = false;
@@ -50,15 +57,23 @@ public class SkyRenderer {
                 worldTime = world.getWorldTime() + partialTick;
                 rainStrength = 1.0f - world.getRainStrength(partialTick);
                 SkyRenderer.celestialAngle = celestialAngle;
+                double x = Layer.normalize(worldTime, Layer.TICKS_PER_DAY, 0.0);
+                cosTime = Math.cos(x);
+                sinTime = Math.sin(x);
+                for (Layer layer : currentWorld.skies) {
+                    layer.computeBrightness();
+                }
             }
         }
     }
 
     public static void renderAll() {
         if (active) {
-            Tessellator tessellator = Tessellator.instance;
+            if (skyBoxList == 0) {
+                skyBoxList = compileSkyBox();
+            }
             for (Layer layer : currentWorld.skies) {
-                layer.render(tessellator);
+                layer.render(skyBoxList);
                 Layer.clearBlendingMethod();
             }
         }
@@ -99,6 +114,7 @@ public class SkyRenderer {
             if (is != null) {
                 Properties properties = new Properties();
                 properties.load(is);
+                TexturePackTracker.addDependency(MCPatcherUtils.SKY_RENDERER_CLASS, prefix + ".properties", reloader);
                 properties.setProperty("fade", "false");
                 properties.setProperty("rotate", "true");
                 Layer layer = new Layer(prefix, properties);
@@ -114,6 +130,44 @@ public class SkyRenderer {
         }
     }
 
+    // the six faces never change, so they and the rotations between them are compiled once and shared by all layers
+    private static int compileSkyBox() {
+        int list = GL11.glGenLists(1);
+        GL11.glNewList(list, GL11.GL_COMPILE);
+
+        // north
+        GL11.glRotatef(90.0f, 1.0f, 0.0f, 0.0f);
+        GL11.glRotatef(-90.0f, 0.0f, 0.0f, 1.0f);
+        Layer.drawTile(4);
+
+        // top
+        GL11.glPushMatrix();
+        GL11.glRotatef(90.0f, 1.0f, 0.0f, 0.0f);
+        Layer.drawTile(1);
+        GL11.glPopMatrix();
+
+        // bottom
+        GL11.glPushMatrix();
+        GL11.glRotatef(-90.0f, 1.0f, 0.0f, 0.0f);
+        Layer.drawTile(0);
+        GL11.glPopMatrix();
+
+        // west
+        GL11.glRotatef(90.0f, 0.0f, 0.0f, 1.0f);
+        Layer.drawTile(5);
+
+        // south
+        GL11.glRotatef(90.0f, 0.0f, 0.0f, 1.0f);
+        Layer.drawTile(2);
+
+        // east
+        GL11.glRotatef(90.0f, 0.0f, 0.0f, 1.0f);
+        Layer.drawTile(3);
+
+        GL11.glEndList();
+        return list;
+    }
+
     private static void checkGLError() {
         int error = GL11.glGetError();
         if (error != 0) {
@@ -152,6 +206,7 @@ public class SkyRenderer {
         private boolean debug;
         private boolean rotate;
         private int blendMethod;
+        private float brightness;
 
         private double a;
         private double b;
@@ -166,6 +221,7 @@ public class SkyRenderer {
                 if (is != null) {
                     Properties properties = new Properties();
                     properties.load(is);
+                    TexturePackTracker.addDependency(MCPatcherUtils.SKY_RENDERER_CLASS, prefix + ".properties", reloader);
                     return new Layer(prefix, properties);
                 }
             } catch (IOException e) {
@@ -185,7 +241,7 @@ public class SkyRenderer {
 
         private boolean readTexture() {
             texture = properties.getProperty("source", prefix + ".png");
-            if (MCPatcherUtils.readImage(lastTexturePack.getInputStream(texture)) == null) {
+            if (MCPatcherUtils.readImageSize(lastTexturePack.getInputStream(texture)) == null) {
                 return addError("source texture %s not found", texture);
             }
             return true;
@@ -306,19 +362,20 @@ public class SkyRenderer {
             return a * Math.cos(x) + b * Math.sin(x) + c;
         }
 
-        boolean render(Tessellator tessellator) {
-            float brightness = rainStrength;
+        void computeBrightness() {
+            brightness = rainStrength;
             if (fade) {
-                double x = normalize(worldTime, TICKS_PER_DAY, 0.0);
-                brightness *= (float) f(x);
+                brightness *= (float) (a * cosTime + b * sinTime + c);
+            }
+            if (brightness > 1.0f) {
+                brightness = 1.0f;
             }
+        }
 
+        boolean render(int skyBoxList) {
             if (brightness <= 0.0f) {
                 return false;
             }
-            if (brightness > 1.0f) {
-                brightness = 1.0f;
-            }
 
             renderEngine.bindTexture(renderEngine.getTexture(texture));
             setBlendingMethod(brightness);
@@ -329,49 +386,26 @@ public class SkyRenderer {
                 GL11.glRotatef(celestialAngle * 360.0f, 1.0f, 0.0f, 0.0f);
             }
 
-            // north
-            GL11.glRotatef(90.0f, 1.0f, 0.0f, 0.0f);
-            GL11.glRotatef(-90.0f, 0.0f, 0.0f, 1.0f);
-            drawTile(tessellator, 4);
-
-            // top
-            GL11.glPushMatrix();
-            GL11.glRotatef(90.0f, 1.0f, 0.0f, 0.0f);
-            drawTile(tessellator, 1);
-            GL11.glPopMatrix();
-
-            // bottom
-            GL11.glPushMatrix();
-            GL11.glRotatef(-90.0f, 1.0f, 0.0f, 0.0f);
-            drawTile(tessellator, 0);
-            GL11.glPopMatrix();
-
-            // west
-            GL11.glRotatef(90.0f, 0.0f, 0.0f, 1.0f);
-            drawTile(tessellator, 5);
-
-            // south
-            GL11.glRotatef(90.0f, 0.0f, 0.0f, 1.0f);
-            drawTile(tessellator, 2);
-
-            // east
-            GL11.glRotatef(90.0f, 0.0f, 0.0f, 1.0f);
-            drawTile(tessellator, 3);
+            GL11.glCallList(skyBoxList);
 
             GL11.glPopMatrix();
 
             return true;
         }
 
-        private static void drawTile(Tessellator tessellator, int tile) {
+        static void drawTile(int tile) {
             double tileX = (tile % 3) / 3.0;
             double tileY = (tile / 3) / 2.0;
-            tessellator.startDrawingQuads();
-            tessellator.addVertexWithUV(-SKY_DISTANCE, -SKY_DISTANCE, -SKY_DISTANCE, tileX, tileY);
-            tessellator.addVertexWithUV(-SKY_DISTANCE, -SKY_DISTANCE, SKY_DISTANCE, tileX, tileY + 0.5);
-            tessellator.addVertexWithUV(SKY_DISTANCE, -SKY_DISTANCE, SKY_DISTANCE, tileX + 1.0 / 3.0, tileY + 0.5);
-            tessellator.addVertexWithUV(SKY_DISTANCE, -SKY_DISTANCE, -SKY_DISTANCE, tileX + 1.0 / 3.0, tileY);
-            tessellator.draw();
+            GL11.glBegin(GL11.GL_QUADS);
+            GL11.glTexCoord2d(tileX, tileY);
+            GL11.glVertex3d(-SKY_DISTANCE, -SKY_DISTANCE, -SKY_DISTANCE);
+            GL11.glTexCoord2d(tileX, tileY + 0.5);
+            GL11.glVertex3d(-SKY_DISTANCE, -SKY_DISTANCE, SKY_DISTANCE);
+            GL11.glTexCoord2d(tileX + 1.0 / 3.0, tileY + 0.5);
+            GL11.glVertex3d(SKY_DISTANCE, -SKY_DISTANCE, SKY_DISTANCE);
+            GL11.glTexCoord2d(tileX + 1.0 / 3.0, tileY);
+            GL11.glVertex3d(SKY_DISTANCE, -SKY_DISTANCE, -SKY_DISTANCE);
+            GL11.glEnd();
         }
 
         void setBlendingMethod(float brightness) {
@@ -446,4 +480,12 @@ public class SkyRenderer {
             GL11.glColor4f(1.0f, 1.0f, 1.0f, rainStrength);
         }
     }
+
+    static class Reloader implements TexturePackTracker.Listener {
+        public boolean resourceChanged(String resource) {
+            // sky textures are reloaded through the RenderEngine; a properties change needs the layers rebuilt
+            lastTexturePack = null;
+            return true;
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package com.pclewis.mcpatcher.mod;
+
+import com.pclewis.mcpatcher.MCPatcherUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GLContext;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static org.lwjgl.opengl.ARBTextureCompression.*;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+
+/**
+ * Optional compressed storage for large static textures.  The driver compresses each texture the first time it is
+ * uploaded, and the compressed data is saved to disk under the hash of the source image so that later loads skip the
+ * compression step.  terrain.png and items.png are left alone because TextureFX and custom animations update them
+ * every frame.
+ */
+final public class TextureCompressor {
+    private static final boolean compressTextures = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "compressTextures", false);
+    private static final int MIN_SIZE = 64;
+    private static final int CACHE_MAGIC = 0x4d435458; // MCTX
+    private static final int CACHE_HEADER_SIZE = 20;
+    private static final long CACHE_EXPIRE_TIME = 30L * 24L * 60L * 60L * 1000L;
+
+    private static final Map<BufferedImage, String> cacheKeys = Collections.synchronizedMap(new WeakHashMap<BufferedImage, String>());
+
+    private static boolean initialized;
+    private static int compressedFormat;
+    private static File cacheDir;
+
+    private TextureCompressor() {
+    }
+
+    /**
+     * Get a digest to compute while the resource is decoded.
+     *
+     * @param resource resource name
+     * @return new digest, or null if the resource will not be compressed
+     */
+    static MessageDigest getDigest(String resource) {
+        if (!compressTextures || resource.equals("/terrain.png") || resource.equals("/gui/items.png") ||
+            resource.startsWith("/font/") || resource.startsWith("/gui/") || resource.startsWith("/title/") ||
+            resource.startsWith("/misc/") || resource.startsWith("/anim/")) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    static void setDigest(BufferedImage image, byte[] digest) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width % 4 != 0 || height % 4 != 0 || width * height < MIN_SIZE * MIN_SIZE) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        sb.append('_').append(width).append('x').append(height);
+        cacheKeys.put(image, sb.toString());
+    }
+
+    /**
+     * Replacement for the GL11.glTexImage2D call in RenderEngine.setupTexture.
+     */
+    public static void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels, BufferedImage image) {
+        String key = (level == 0 && image != null ? cacheKeys.get(image) : null);
+        if (key == null || !init() || MCPatcherUtils.getMinecraft().gameSettings.anaglyph) {
+            GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+            return;
+        }
+        File file = new File(cacheDir, key + ".tex");
+        if (loadCompressed(target, file, width, height)) {
+            return;
+        }
+        GL11.glGetError();
+        GL11.glTexImage2D(target, level, compressedFormat, width, height, border, format, type, pixels);
+        if (GL11.glGetError() != GL11.GL_NO_ERROR || GL11.glGetTexLevelParameteri(target, 0, GL_TEXTURE_COMPRESSED_ARB) == GL11.GL_FALSE) {
+            MCPatcherUtils.debug("texture compression failed for %s", key);
+            GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+            return;
+        }
+        saveCompressed(target, file, width, height);
+    }
+
+    private static boolean init() {
+        if (!initialized) {
+            initialized = true;
+            ContextCapabilities capabilities = GLContext.getCapabilities();
+            if (capabilities == null || !capabilities.GL_ARB_texture_compression) {
+                MCPatcherUtils.warn("GL_ARB_texture_compression not supported, textures will not be compressed");
+            } else {
+                compressedFormat = capabilities.GL_EXT_texture_compression_s3tc ? GL_COMPRESSED_RGBA_S3TC_DXT5_EXT : GL_COMPRESSED_RGBA_ARB;
+                cacheDir = MCPatcherUtils.getMinecraftPath("mcpatcher-cache", "textures");
+                if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                    MCPatcherUtils.warn("could not create %s", cacheDir.getPath());
+                }
+                pruneCache();
+                MCPatcherUtils.debug("compressing textures with format 0x%x", compressedFormat);
+            }
+        }
+        return compressedFormat != 0;
+    }
+
+    private static void pruneCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long expired = System.currentTimeMillis() - CACHE_EXPIRE_TIME;
+        for (File file : files) {
+            if (file.isFile() && file.lastModified() < expired) {
+                MCPatcherUtils.debug("removing expired %s", file.getName());
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean loadCompressed(int target, File file, int width, int height) {
+        if (!file.isFile()) {
+            return false;
+        }
+        RandomAccessFile raf = null;
+        ByteBuffer buffer = null;
+        boolean loaded = false;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            if (raf.readInt() != CACHE_MAGIC || raf.readInt() != width || raf.readInt() != height) {
+                return false;
+            }
+            int format = raf.readInt();
+            int size = raf.readInt();
+            if (size <= 0 || size != raf.length() - CACHE_HEADER_SIZE) {
+                return false;
+            }
+            buffer = DirectBufferPool.allocate(size);
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            GL11.glGetError();
+            glCompressedTexImage2DARB(target, 0, format, width, height, 0, buffer);
+            loaded = (GL11.glGetError() == GL11.GL_NO_ERROR);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            MCPatcherUtils.close(raf);
+            DirectBufferPool.release(buffer);
+            if (loaded) {
+                file.setLastModified(System.currentTimeMillis());
+            } else {
+                MCPatcherUtils.debug("discarding %s", file.getName());
+                file.delete();
+            }
+        }
+        return loaded;
+    }
+
+    private static void saveCompressed(int target, File file, int width, int height) {
+        int format = GL11.glGetTexLevelParameteri(target, 0, GL11.GL_TEXTURE_INTERNAL_FORMAT);
+        int size = GL11.glGetTexLevelParameteri(target, 0, GL_TEXTURE_COMPRESSED_IMAGE_SIZE_ARB);
+        if (size <= 0) {
+            return;
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = null;
+        ByteBuffer buffer = DirectBufferPool.allocate(size);
+        boolean saved = false;
+        try {
+            glGetCompressedTexImageARB(target, 0, buffer);
+            raf = new RandomAccessFile(tmpFile, "rw");
+            raf.setLength(0);
+            raf.writeInt(CACHE_MAGIC);
+            raf.writeInt(width);
+            raf.writeInt(height);
+            raf.writeInt(format);
+            raf.writeInt(size);
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            saved = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            MCPatcherUtils.close(raf);
+            DirectBufferPool.release(buffer);
+        }
+        if (saved && (!file.exists() || file.delete()) && tmpFile.renameTo(file)) {
+            MCPatcherUtils.debug("cached compressed texture %s (%d bytes)", file.getName(), size);
+        } else {
+            tmpFile.delete();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.pclewis.mcpatcher.mod;
+
+import com.pclewis.mcpatcher.MCPatcherUtils;
+
+import java.util.*;
+
+/**
+ * Lets a texture pack be reloaded in place.  Code that caches data per texture pack compares the selected pack
+ * against the one it loaded from; when the same pack object is reopened after its file changes, the generation
+ * number changes instead.
+ * <p/>
+ * Code that loads a resource can also register itself as dependent on it.  When only a few files in a pack change,
+ * the listeners for those files are told about it instead of reloading the whole pack.
+ */
+final public class TexturePackTracker {
+    private static int generation;
+    private static final HashMap<String, HashMap<String, LinkedHashSet<Listener>>> dependencies = new HashMap<String, HashMap<String, LinkedHashSet<Listener>>>();
+    private static Object indexedTexturePack;
+    private static int indexedGeneration;
+    private static Set<String> resources;
+
+    public interface Listener {
+        /**
+         * Called when a resource this listener depends on has changed in the selected texture pack.
+         *
+         * @param resource resource path, e.g., /misc/grasscolor.png
+         * @return false if the change cannot be applied in place and the whole pack must be reloaded
+         */
+        boolean resourceChanged(String resource);
+    }
+
+    private TexturePackTracker() {
+    }
+
+    public static int getGeneration() {
+        return generation;
+    }
+
+    public static void invalidate() {
+        generation++;
+        synchronized (dependencies) {
+            dependencies.clear();
+        }
+        MCPatcherUtils.debug("texture pack generation %d", generation);
+    }
+
+    /**
+     * Publish the list of files in a texture pack.  It stays valid until the pack is reloaded.
+     *
+     * @param texturePack texture pack
+     * @param resources   resource paths, e.g., /mob/pig2.png
+     */
+    public static synchronized void setResources(Object texturePack, Set<String> resources) {
+        indexedTexturePack = texturePack;
+        indexedGeneration = generation;
+        TexturePackTracker.resources = Collections.unmodifiableSet(resources);
+    }
+
+    /**
+     * Get the list of files in a texture pack, if one has been published.
+     *
+     * @param texturePack texture pack
+     * @return resource paths, or null if the pack has not been listed
+     */
+    public static synchronized Set<String> getResources(Object texturePack) {
+        if (texturePack == null || texturePack != indexedTexturePack || generation != indexedGeneration) {
+            return null;
+        }
+        return resources;
+    }
+
+    /**
+     * Record that a resource was loaded on behalf of a listener.
+     *
+     * @param owner    name used to clear all of a module's dependencies at once when it reloads
+     * @param resource resource path
+     * @param listener object to notify when the resource changes
+     */
+    public static void addDependency(String owner, String resource, Listener listener) {
+        synchronized (dependencies) {
+            HashMap<String, LinkedHashSet<Listener>> resources = dependencies.get(owner);
+            if (resources == null) {
+                resources = new HashMap<String, LinkedHashSet<Listener>>();
+                dependencies.put(owner, resources);
+            }
+            LinkedHashSet<Listener> listeners = resources.get(resource);
+            if (listeners == null) {
+                listeners = new LinkedHashSet<Listener>();
+                resources.put(resource, listeners);
+            }
+            listeners.add(listener);
+        }
+    }
+
+    public static void clearDependencies(String owner) {
+        synchronized (dependencies) {
+            dependencies.remove(owner);
+        }
+    }
+
+    static HashSet<String> getDependencies() {
+        HashSet<String> resources = new HashSet<String>();
+        synchronized (dependencies) {
+            for (HashMap<String, LinkedHashSet<Listener>> map : dependencies.values()) {
+                resources.addAll(map.keySet());
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Notify listeners of changed resources.
+     *
+     * @param resources changed resource paths
+     * @return true if every change was handled in place
+     */
+    static boolean resourcesChanged(Collection<String> resources) {
+        LinkedHashMap<String, ArrayList<Listener>> toNotify = new LinkedHashMap<String, ArrayList<Listener>>();
+        synchronized (dependencies) {
+            for (String resource : resources) {
+                ArrayList<Listener> listeners = new ArrayList<Listener>();
+                for (HashMap<String, LinkedHashSet<Listener>> map : dependencies.values()) {
+                    LinkedHashSet<Listener> set = map.get(resource);
+                    if (set != null) {
+                        listeners.addAll(set);
+                    }
+                }
+                if (listeners.isEmpty()) {
+                    MCPatcherUtils.debug("no dependencies on %s", resource);
+                    return false;
+                }
+                toNotify.put(resource, listeners);
+            }
+        }
+        for (Map.Entry<String, ArrayList<Listener>> entry : toNotify.entrySet()) {
+            for (Listener listener : entry.getValue()) {
+                if (!listener.resourceChanged(entry.getKey())) {
+                    MCPatcherUtils.debug("%s could not reload %s", listener.getClass().getSimpleName(), entry.getKey());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,104 @@
+package com.pclewis.mcpatcher.mod;
+
+import com.pclewis.mcpatcher.MCPatcherUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GLContext;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.ARBBufferObject.*;
+import static org.lwjgl.opengl.ARBPixelBufferObject.GL_PIXEL_UNPACK_BUFFER_ARB;
+
+final class TextureUploader {
+    private static final boolean usePixelBuffers = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "usePixelBuffers", true);
+    private static final int minPixelBufferSize = MCPatcherUtils.getInt(MCPatcherUtils.HD_TEXTURES, "minPixelBufferSize", 64 * 1024);
+    private static final int NUM_BUFFERS = 2;
+
+    private static boolean initialized;
+    private static boolean active;
+    private static final int[] pixelBuffers = new int[NUM_BUFFERS];
+    private static final ByteBuffer[] mappedBuffers = new ByteBuffer[NUM_BUFFERS];
+    private static int currentBuffer;
+
+    private TextureUploader() {
+    }
+
+    static boolean isPixelBufferActive() {
+        init();
+        return active;
+    }
+
+    static void texSubImage2D(int texture, int target, int level, int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+        upload(target, level, x, y, width, height, format, type, pixels);
+        if (level == 0 && target == GL11.GL_TEXTURE_2D && format == GL11.GL_RGBA && type == GL11.GL_UNSIGNED_BYTE && MipmapHelper.isActive()) {
+            MipmapHelper.update(texture, x, y, width, height, pixels);
+        }
+    }
+
+    private static void upload(int target, int level, int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+        init();
+        int size = 4 * width * height;
+        // small updates such as 16x16 TextureFX tiles are cheaper to copy directly than to stage through a mapped buffer
+        if (!active || size < minPixelBufferSize || format != GL11.GL_RGBA || type != GL11.GL_UNSIGNED_BYTE || pixels.remaining() < size) {
+            GL11.glTexSubImage2D(target, level, x, y, width, height, format, type, pixels);
+            return;
+        }
+        int index = currentBuffer;
+        currentBuffer = (currentBuffer + 1) % NUM_BUFFERS;
+        glBindBufferARB(GL_PIXEL_UNPACK_BUFFER_ARB, pixelBuffers[index]);
+        // orphan the previous contents so the driver does not wait for a pending transfer
+        glBufferDataARB(GL_PIXEL_UNPACK_BUFFER_ARB, size, GL_STREAM_DRAW_ARB);
+        ByteBuffer mapped = glMapBufferARB(GL_PIXEL_UNPACK_BUFFER_ARB, GL_WRITE_ONLY_ARB, size, mappedBuffers[index]);
+        if (mapped == null) {
+            glBindBufferARB(GL_PIXEL_UNPACK_BUFFER_ARB, 0);
+            MCPatcherUtils.warn("glMapBufferARB failed, disabling pixel buffer uploads");
+            destroy();
+            GL11.glTexSubImage2D(target, level, x, y, width, height, format, type, pixels);
+            return;
+        }
+        mappedBuffers[index] = mapped;
+        int position = pixels.position();
+        int limit = pixels.limit();
+        mapped.clear();
+        pixels.limit(position + size);
+        mapped.put(pixels);
+        pixels.limit(limit);
+        pixels.position(position);
+        glUnmapBufferARB(GL_PIXEL_UNPACK_BUFFER_ARB);
+        GL11.glTexSubImage2D(target, level, x, y, width, height, format, type, 0L);
+        glBindBufferARB(GL_PIXEL_UNPACK_BUFFER_ARB, 0);
+    }
+
+    static void destroy() {
+        if (active) {
+            for (int i = 0; i < NUM_BUFFERS; i++) {
+                glDeleteBuffersARB(pixelBuffers[i]);
+                pixelBuffers[i] = 0;
+                mappedBuffers[i] = null;
+            }
+        }
+        active = false;
+    }
+
+    private static void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        if (!usePixelBuffers) {
+            MCPatcherUtils.debug("pixel buffer uploads disabled");
+            return;
+        }
+        ContextCapabilities capabilities = GLContext.getCapabilities();
+        if (capabilities == null || !capabilities.GL_ARB_pixel_buffer_object) {
+            MCPatcherUtils.debug("GL_ARB_pixel_buffer_object not supported, using direct uploads");
+            return;
+        }
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+            pixelBuffers[i] = glGenBuffersARB();
+        }
+        active = true;
+        MCPatcherUtils.debug("using %d pixel buffers for texture uploads", NUM_BUFFERS);
+    }
+}
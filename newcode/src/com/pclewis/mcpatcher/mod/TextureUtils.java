@@ -3,14 +3,19 @@ package com.pclewis.mcpatcher.mod;
 import com.pclewis.mcpatcher.MCPatcherUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraft.src.*;
+import org.lwjgl.opengl.GL11;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -38,10 +43,23 @@ public class TextureUtils {
     private static boolean useTextureCache;
     private static boolean reclaimGLMemory;
     private static boolean autoRefreshTextures;
+    private static boolean snapshotTexturePacks;
+    private static final Set<File> changedTexturePacks = Collections.synchronizedSet(new HashSet<File>());
+    private static HashMap<String, Long> replacedZipEntries;
+    private static volatile boolean texturePackCopyFailed;
     private static TexturePackBase lastTexturePack = null;
+    private static TreeSet<String> animResources;
     private static HashMap<String, BufferedImage> cache = new HashMap<String, BufferedImage>();
 
-    private static int textureRefreshCount;
+    private static final long WATCH_INTERVAL = 500L;
+    private static final long WATCH_SETTLE_TIME = 1000L;
+    private static PackWatcher packWatcher;
+    private static TexturePackBase watchedTexturePack;
+    private static final TextureReloader textureReloader = new TextureReloader();
+    private static final HashMap<String, LoadedTexture> loadedTextures = new HashMap<String, LoadedTexture>();
+    private static final HashMap<Integer, LoadedTexture> loadedTexturesByID = new HashMap<Integer, LoadedTexture>();
+    private static String textureKey;
+    private static String textureKeyResource;
 
     private static final String ALL_ITEMS = "/gui/allitems.png";
     private static final String ALL_ITEMSX = "/gui/allitemsx.png";
@@ -49,6 +67,26 @@ public class TextureUtils {
     public static boolean oldCreativeGui;
 
     private static boolean bindImageReentry;
+    private static int textureFXTexture = -1;
+
+    private static final int DECODE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final String[] PRELOAD_RESOURCES = new String[]{
+        "/anim/custom_lava_still.png",
+        "/anim/custom_lava_flowing.png",
+        "/anim/custom_water_still.png",
+        "/anim/custom_water_flowing.png",
+        "/anim/custom_fire_n_s.png",
+        "/anim/custom_fire_e_w.png",
+        "/anim/custom_portal.png",
+        "/misc/watercolor.png",
+        "/misc/grasscolor.png",
+        "/misc/foliagecolor.png",
+    };
+    private static ExecutorService decodeExecutor;
+    private static TexturePackBase preloadTexturePack;
+    private static int preloadTileSize;
+    private static final HashMap<String, Future<BufferedImage>> preloadedImages = new HashMap<String, Future<BufferedImage>>();
+    private static final ReadWriteLock decodeLock = new ReentrantReadWriteLock(); // held by decoders while they read the pack
 
     static {
         animatedFire = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "animatedFire", true);
@@ -64,6 +102,9 @@ public class TextureUtils {
         useTextureCache = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "useTextureCache", false);
         reclaimGLMemory = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "reclaimGLMemory", false);
         autoRefreshTextures = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "autoRefreshTextures", false);
+        // Windows will not let the pack be saved while it is open, so copy it up front there
+        boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
+        snapshotTexturePacks = MCPatcherUtils.getBoolean(MCPatcherUtils.HD_TEXTURES, "snapshotTexturePacks", isWindows);
 
         expectedColumns.put("/terrain.png", 16);
         expectedColumns.put("/gui/items.png", 16);
@@ -73,16 +114,159 @@ public class TextureUtils {
     public static boolean setTileSize() {
         MCPatcherUtils.debug("\nchanging skin to %s", getTexturePackName(getSelectedTexturePack()));
         int size = getTileSize();
+        boolean changed;
         if (size == TileSize.int_size) {
             MCPatcherUtils.debug("tile size %d unchanged", size);
-            return false;
+            changed = false;
         } else {
             MCPatcherUtils.debug("setting tile size to %d (was %d)", size, TileSize.int_size);
             TileSize.setTileSize(size);
-            return true;
+            changed = true;
+        }
+        TexturePackTracker.clearDependencies(MCPatcherUtils.TEXTURE_UTILS_CLASS);
+        getPackResources(getSelectedTexturePack());
+        ArrayList<String> resources = new ArrayList<String>(expectedColumns.keySet());
+        resources.addAll(Arrays.asList(PRELOAD_RESOURCES));
+        preloadImages(getSelectedTexturePack(), resources);
+        return changed;
+    }
+
+    static void preloadImages(TexturePackBase texturePack, Collection<String> resources) {
+        synchronized (preloadedImages) {
+            int tileSize = TileSize.int_size;
+            if (texturePack != preloadTexturePack || tileSize != preloadTileSize) {
+                clearPreloadedImages();
+                preloadTexturePack = texturePack;
+                preloadTileSize = tileSize;
+            }
+            if (decodeExecutor == null) {
+                decodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new DecodeThreadFactory());
+            }
+            for (String resource : resources) {
+                if (!preloadedImages.containsKey(resource)) {
+                    preloadedImages.put(resource, decodeExecutor.submit(new DecodeTask(texturePack, resource, tileSize)));
+                }
+            }
+            MCPatcherUtils.debug("preloading %d images on %d threads", preloadedImages.size(), DECODE_THREADS);
         }
     }
 
+    private static void retainPreloadedImages(Collection<String> resources) {
+        synchronized (preloadedImages) {
+            Iterator<Map.Entry<String, Future<BufferedImage>>> iterator = preloadedImages.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Future<BufferedImage>> entry = iterator.next();
+                if (!resources.contains(entry.getKey())) {
+                    entry.getValue().cancel(false);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static void clearPreloadedImages() {
+        synchronized (preloadedImages) {
+            for (Future<BufferedImage> future : preloadedImages.values()) {
+                future.cancel(false);
+            }
+            preloadedImages.clear();
+        }
+    }
+
+    /**
+     * Stop all background decoding before the texture pack is closed.  Queued decodes are cancelled, and the caller
+     * waits for running ones to finish.  Images that have already been decoded are kept.  Call
+     * {@link #resumePreloadedImages()} once the pack is open again.
+     *
+     * @return resources whose decoding was interrupted, to requeue afterward
+     */
+    private static ArrayList<String> suspendPreloadedImages() {
+        ArrayList<String> resources = new ArrayList<String>();
+        synchronized (preloadedImages) {
+            Iterator<Map.Entry<String, Future<BufferedImage>>> iterator = preloadedImages.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Future<BufferedImage>> entry = iterator.next();
+                if (!entry.getValue().isDone()) {
+                    entry.getValue().cancel(false);
+                    resources.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        decodeLock.writeLock().lock();
+        return resources;
+    }
+
+    private static void resumePreloadedImages() {
+        decodeLock.writeLock().unlock();
+    }
+
+    private static BufferedImage getPreloadedImage(TexturePackBase texturePack, String resource) throws IOException {
+        Future<BufferedImage> future;
+        synchronized (preloadedImages) {
+            if (texturePack != preloadTexturePack || TileSize.int_size != preloadTileSize) {
+                return null;
+            }
+            future = preloadedImages.remove(resource);
+        }
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // report the decoder's failure as if it happened here instead of decoding the image a second time
+            Throwable cause = e.getCause();
+            MCPatcherUtils.error("could not load %s: %s", resource, cause);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw (IOException) new IOException(resource).initCause(cause);
+            }
+        } catch (CancellationException e) {
+        }
+        return null;
+    }
+
+    private static BufferedImage decodeImage(TexturePackBase texturePack, String resource, int tileSize) throws IOException {
+        BufferedImage image = null;
+        InputStream is = getResourceAsStream(texturePack, resource);
+        MessageDigest digest = null;
+        if (is != null) {
+            try {
+                digest = TextureCompressor.getDigest(resource);
+                if (digest != null) {
+                    is = new DigestInputStream(is, digest);
+                }
+                image = ImageIO.read(is);
+            } finally {
+                MCPatcherUtils.close(is);
+            }
+        }
+        if (image != null) {
+            Integer i;
+            if (isCustomTerrainItemResource(resource)) {
+                i = 1;
+            } else {
+                i = expectedColumns.get(resource);
+            }
+            if (i != null && image.getWidth() != i * tileSize) {
+                image = resizeImage(image, i * tileSize);
+            }
+            MipmapHelper.generateMipmaps(resource, image);
+            if (digest != null) {
+                TextureCompressor.setDigest(image, digest.digest());
+            }
+        }
+        return image;
+    }
+
     private static void setFontRenderer(Minecraft minecraft, FontRenderer fontRenderer, String filename) {
         boolean saveUnicode = fontRenderer.isUnicode;
         fontRenderer.initialize(minecraft.gameSettings, filename, minecraft.renderEngine);
@@ -174,6 +358,7 @@ public class TextureUtils {
 
         TexturePackBase selectedTexturePack = getSelectedTexturePack();
         boolean isDefault = (selectedTexturePack == null || selectedTexturePack instanceof TexturePackDefault);
+        animResources = getAnimResources(getPackResources(selectedTexturePack));
 
         if (!isDefault && customLava) {
             CustomAnimation.addStripOrTile("/terrain.png", "lava_still", LAVA_STILL_TEXTURE_INDEX, 1, -1, -1);
@@ -191,7 +376,7 @@ public class TextureUtils {
             textureList.add(new FlowWater());
         }
 
-        if (!isDefault && customFire && hasResource("/anim/custom_fire_e_w.png") && hasResource("/anim/custom_fire_n_s.png")) {
+        if (!isDefault && customFire && hasAnimResource("/anim/custom_fire_e_w.png") && hasAnimResource("/anim/custom_fire_n_s.png")) {
             CustomAnimation.addStrip("/terrain.png", "fire_n_s", FIRE_N_S_TEXTURE_INDEX, 1);
             CustomAnimation.addStrip("/terrain.png", "fire_e_w", FIRE_E_W_TEXTURE_INDEX, 1);
         } else if (animatedFire) {
@@ -199,7 +384,7 @@ public class TextureUtils {
             textureList.add(new Fire(1));
         }
 
-        if (!isDefault && customPortal && hasResource("/anim/custom_portal.png")) {
+        if (!isDefault && customPortal && hasAnimResource("/anim/custom_portal.png")) {
             CustomAnimation.addStrip("/terrain.png", "portal", PORTAL_TEXTURE_INDEX, 1);
         } else if (animatedPortal) {
             textureList.add(new Portal());
@@ -208,46 +393,21 @@ public class TextureUtils {
         if (customOther) {
             addOtherTextureFX("/terrain.png", "terrain");
             addOtherTextureFX("/gui/items.png", "item");
-            if (selectedTexturePack instanceof TexturePackDefault) {
-            } else if (selectedTexturePack instanceof TexturePackCustom) {
-                TexturePackCustom custom = (TexturePackCustom) selectedTexturePack;
-                for (ZipEntry entry : Collections.list(custom.zipFile.entries())) {
-                    String name = "/" + entry.getName();
-                    if (name.startsWith("/anim/") && name.endsWith(".properties") && !isCustomTerrainItemResource(name)) {
+            if (animResources != null) {
+                for (String resource : animResources) {
+                    if (resource.endsWith(".properties") && !isCustomTerrainItemResource(resource)) {
                         InputStream inputStream = null;
                         try {
-                            inputStream = custom.zipFile.getInputStream(entry);
-                            Properties properties = new Properties();
-                            properties.load(inputStream);
-                            CustomAnimation.addStrip(properties);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        } finally {
-                            MCPatcherUtils.close(inputStream);
-                        }
-                    }
-                }
-            } else if (selectedTexturePack instanceof TexturePackFolder) {
-                File folder = ((TexturePackFolder) selectedTexturePack).getFolder();
-                if (folder != null) {
-                    folder = new File(folder, "anim");
-                    if (folder.isDirectory()) {
-                        for (File file : folder.listFiles(new FilenameFilter() {
-                            public boolean accept(File dir, String name) {
-                                return name.endsWith(".properties") && !isCustomTerrainItemResource("/anim/" + name);
-                            }
-                        })) {
-                            InputStream inputStream = null;
-                            try {
-                                inputStream = new FileInputStream(file);
+                            inputStream = getResourceAsStream(selectedTexturePack, resource);
+                            if (inputStream != null) {
                                 Properties properties = new Properties();
                                 properties.load(inputStream);
                                 CustomAnimation.addStrip(properties);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            } finally {
-                                MCPatcherUtils.close(inputStream);
                             }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            MCPatcherUtils.close(inputStream);
                         }
                     }
                 }
@@ -270,18 +430,106 @@ public class TextureUtils {
         refreshColorizer(ColorizerGrass.colorBuffer, "/misc/grasscolor.png");
         refreshColorizer(ColorizerFoliage.colorBuffer, "/misc/foliagecolor.png");
 
+        // animation strips are decoded the first time they play, so keep decoding them in the background until then
+        Collection<String> pending = CustomAnimation.getPendingResources();
+        retainPreloadedImages(pending);
+        preloadImages(selectedTexturePack, pending);
         System.gc();
+        MCPatcherUtils.debug("direct buffer pool: %dKB allocated, peak native usage %dKB",
+            DirectBufferPool.getAllocatedBytes() / 1024, DirectBufferPool.getPeakBytes() / 1024
+        );
     }
 
     private static void addOtherTextureFX(String textureName, String imageName) {
         for (int tileNum = 0; tileNum < 256; tileNum++) {
             String resource = "/anim/custom_" + imageName + "_" + tileNum + ".png";
-            if (hasResource(resource)) {
+            if (hasAnimResource(resource)) {
                 CustomAnimation.addStrip(textureName, imageName + "_" + tileNum, tileNum, 1);
             }
         }
     }
 
+    /**
+     * Get the names of all files in a texture pack from its zip directory or folder tree, without opening any of
+     * them.  The list is shared with other mods through TexturePackTracker.
+     *
+     * @param texturePack texture pack
+     * @return resource names, or null if the pack cannot be listed
+     */
+    static Set<String> getPackResources(TexturePackBase texturePack) {
+        Set<String> resources = TexturePackTracker.getResources(texturePack);
+        if (resources != null) {
+            return resources;
+        }
+        HashSet<String> newResources = new HashSet<String>();
+        if (texturePack instanceof TexturePackCustom) {
+            ZipFile zipFile = ((TexturePackCustom) texturePack).zipFile;
+            if (zipFile == null) {
+                return null;
+            }
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                if (!entry.isDirectory()) {
+                    newResources.add("/" + entry.getName());
+                }
+            }
+        } else if (texturePack instanceof TexturePackFolder) {
+            File folder = ((TexturePackFolder) texturePack).getFolder();
+            if (folder == null) {
+                return null;
+            }
+            addPackResources(newResources, folder, "/");
+        } else {
+            return null;
+        }
+        MCPatcherUtils.debug("found %d files in %s", newResources.size(), getTexturePackName(texturePack));
+        TexturePackTracker.setResources(texturePack, newResources);
+        return newResources;
+    }
+
+    private static void addPackResources(Set<String> resources, File folder, String prefix) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    addPackResources(resources, file, prefix + file.getName() + "/");
+                } else {
+                    resources.add(prefix + file.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Pick out the animation resources.  Custom terrain and item animations at the top level of the pack are listed
+     * under /anim, where getResourceAsStream also looks for them.
+     */
+    private static TreeSet<String> getAnimResources(Set<String> packResources) {
+        if (packResources == null) {
+            return null;
+        }
+        TreeSet<String> resources = new TreeSet<String>();
+        for (String resource : packResources) {
+            addAnimResource(resources, resource);
+        }
+        return resources;
+    }
+
+    private static void addAnimResource(Set<String> resources, String resource) {
+        if (resource.startsWith("/anim/")) {
+            resources.add(resource);
+        } else if (resource.indexOf('/', 1) < 0 && isCustomTerrainItemResource(resource)) {
+            resources.add("/anim" + resource);
+        }
+    }
+
+    static boolean hasAnimResource(String resource) {
+        if (animResources == null) {
+            return hasResource(resource);
+        } else {
+            return animResources.contains(resource);
+        }
+    }
+
     public static TexturePackBase getSelectedTexturePack() {
         Minecraft minecraft = MCPatcherUtils.getMinecraft();
         return minecraft == null ? null :
@@ -299,7 +547,8 @@ public class TextureUtils {
         final int needed = data.length;
         if (needed > have || (reclaimGLMemory && have >= 4 * needed)) {
             //MCPatcherUtils.log("resizing gl buffer from 0x%x to 0x%x", have, needed);
-            buffer = GLAllocation.createDirectByteBuffer(needed);
+            DirectBufferPool.release(buffer);
+            buffer = DirectBufferPool.allocate(needed);
         }
         buffer.put(data);
         buffer.position(0).limit(needed);
@@ -307,6 +556,27 @@ public class TextureUtils {
         return buffer;
     }
 
+    public static void bindTextureFX(TextureFX textureFX, RenderEngine renderEngine) {
+        // same textures that TextureFX.bindImage selects
+        switch (textureFX.tileImage) {
+            case 0:
+                textureFXTexture = renderEngine.getTexture("/terrain.png");
+                break;
+
+            case 1:
+                textureFXTexture = renderEngine.getTexture("/gui/items.png");
+                break;
+
+            default:
+                textureFXTexture = -1;
+                break;
+        }
+    }
+
+    public static void glTexSubImage2D(int target, int level, int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+        TextureUploader.texSubImage2D(textureFXTexture, target, level, x, y, width, height, format, type, pixels);
+    }
+
     public static boolean isRequiredResource(String resource) {
         return resource.equals("/terrain.png") || resource.equals("/gui/items.png");
     }
@@ -332,6 +602,9 @@ public class TextureUtils {
             }
         }
         if (texturePack != null) {
+            if (texturePack instanceof TexturePackCustom) {
+                checkTexturePackFile((TexturePackCustom) texturePack);
+            }
             try {
                 is = texturePack.getInputStream(resource);
             } catch (Exception e) {
@@ -369,14 +642,11 @@ public class TextureUtils {
         }
 
         if (image == null) {
-            InputStream is = getResourceAsStream(texturePack, resource);
-            if (is != null) {
-                try {
-                    image = ImageIO.read(is);
-                } finally {
-                    MCPatcherUtils.close(is);
-                }
-            }
+            image = getPreloadedImage(texturePack, resource);
+        }
+
+        if (image == null) {
+            image = decodeImage(texturePack, resource, TileSize.int_size);
         }
 
         if (image == null) {
@@ -395,15 +665,6 @@ public class TextureUtils {
             resource, image.getWidth(), image.getHeight(), (cached ? "cache" : getTexturePackName(texturePack))
         );
         if (!cached) {
-            Integer i;
-            if (isCustomTerrainItemResource(resource)) {
-                i = 1;
-            } else {
-                i = expectedColumns.get(resource);
-            }
-            if (i != null && image.getWidth() != i * TileSize.int_size) {
-                image = resizeImage(image, i * TileSize.int_size);
-            }
             if (useTextureCache) {
                 lastTexturePack = texturePack;
                 cache.put(resource, image);
@@ -437,25 +698,71 @@ public class TextureUtils {
     }
 
     public static BufferedImage getResourceAsBufferedImage(Object o1, Object o2, String resource) throws IOException {
+        if (!expectedColumns.containsKey(resource)) {
+            TexturePackTracker.addDependency(MCPatcherUtils.TEXTURE_UTILS_CLASS, resource, textureReloader);
+        }
+        if (textureKey != null && (textureKey.equals(resource) || textureKey.equals("##" + resource) ||
+            textureKey.equals("%clamp%" + resource) || textureKey.equals("%blur%" + resource))) {
+            textureKeyResource = resource;
+        }
         return getResourceAsBufferedImage(resource);
     }
 
+    /**
+     * Called at the start of RenderEngine.getTexture.  The key may carry a %clamp%, %blur% or ## prefix, so the
+     * texture it maps to is recorded when setupTexture runs for the same resource.
+     */
+    public static void beginGetTexture(String key) {
+        textureKey = key;
+        textureKeyResource = null;
+    }
+
+    /**
+     * Called at the end of RenderEngine.setupTexture.
+     *
+     * @param image   image just uploaded
+     * @param texture GL texture, currently bound
+     */
+    public static void setupTexture(BufferedImage image, int texture) {
+        if (image != null) {
+            LoadedTexture loaded = loadedTexturesByID.get(texture);
+            if (textureKeyResource != null) {
+                if (loaded != null) {
+                    loadedTextures.remove(loaded.resource);
+                }
+                loaded = new LoadedTexture(textureKey, textureKeyResource, texture);
+                loadedTextures.put(loaded.resource, loaded);
+                loadedTexturesByID.put(texture, loaded);
+            }
+            if (loaded != null) {
+                loaded.width = image.getWidth();
+                loaded.height = image.getHeight();
+            }
+        }
+        textureKey = null;
+        textureKeyResource = null;
+        MipmapHelper.setupTexture(image, texture);
+    }
+
+    /**
+     * Called after RenderEngine.deleteTexture frees a GL texture.
+     */
+    public static void deleteTexture(int texture) {
+        LoadedTexture loaded = loadedTexturesByID.remove(texture);
+        if (loaded != null) {
+            loadedTextures.remove(loaded.resource);
+        }
+        MipmapHelper.deleteTexture(texture);
+    }
+
     public static int getTileSize(TexturePackBase texturePack) {
         int size = 0;
         for (Map.Entry<String, Integer> entry : expectedColumns.entrySet()) {
-            InputStream is = null;
-            try {
-                is = getResourceAsStream(texturePack, entry.getKey());
-                if (is != null) {
-                    BufferedImage bi = ImageIO.read(is);
-                    int newSize = bi.getWidth() / entry.getValue();
-                    MCPatcherUtils.debug("  %s tile size is %d", entry.getKey(), newSize);
-                    size = Math.max(size, newSize);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                MCPatcherUtils.close(is);
+            int[] imageSize = MCPatcherUtils.readImageSize(getResourceAsStream(texturePack, entry.getKey()));
+            if (imageSize != null) {
+                int newSize = imageSize[0] / entry.getValue();
+                MCPatcherUtils.debug("  %s tile size is %d", entry.getKey(), newSize);
+                size = Math.max(size, newSize);
             }
         }
         return size > 0 ? size : 16;
@@ -477,14 +784,38 @@ public class TextureUtils {
     }
 
     static BufferedImage resizeImage(BufferedImage image, int width) {
-        int height = image.getHeight() * width / image.getWidth();
+        int oldWidth = image.getWidth();
+        int oldHeight = image.getHeight();
+        int height = oldHeight * width / oldWidth;
         MCPatcherUtils.debug("  resizing to %dx%d", width, height);
         BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D graphics2D = newImage.createGraphics();
-        graphics2D.drawImage(image, 0, 0, width, height, null);
+        if (width <= 0 || height <= 0) {
+            return newImage;
+        }
+        int[] oldRGB = new int[oldWidth * oldHeight];
+        image.getRGB(0, 0, oldWidth, oldHeight, oldRGB, 0, oldWidth);
+        int[] newRGB = resizeRGB(oldRGB, oldWidth, oldHeight, width, height);
+        newImage.setRGB(0, 0, width, height, newRGB, 0, width);
         return newImage;
     }
 
+    static int[] resizeRGB(int[] oldRGB, int oldWidth, int oldHeight, int width, int height) {
+        // nearest neighbor sampling at pixel centers, same as the default Graphics2D.drawImage
+        int[] newRGB = new int[width * height];
+        int[] srcX = new int[width];
+        for (int x = 0; x < width; x++) {
+            srcX[x] = (int) ((2L * x + 1) * oldWidth / (2L * width));
+        }
+        for (int y = 0; y < height; y++) {
+            int srcRow = (int) ((2L * y + 1) * oldHeight / (2L * height)) * oldWidth;
+            int dstRow = y * width;
+            for (int x = 0; x < width; x++) {
+                newRGB[dstRow + x] = oldRGB[srcRow + srcX[x]];
+            }
+        }
+        return newRGB;
+    }
+
     private static void refreshColorizer(int[] colorBuffer, String resource) {
         try {
             BufferedImage bi = getResourceAsBufferedImage(resource);
@@ -500,16 +831,55 @@ public class TextureUtils {
         if (!autoRefreshTextures || pack.zipFile == null) {
             return;
         }
+        pack.lastModified = pack.file.lastModified();
+        pack.fileSize = pack.file.length();
+        pack.directoryOffset = getZipDirectoryOffset(pack.file);
+        if (!snapshotTexturePacks && !changedTexturePacks.contains(pack.file)) {
+            // read the pack in place until it is seen to change on disk
+            MCPatcherUtils.debug("using %s directly, lastModified = %d", pack.file.getPath(), pack.lastModified);
+            return;
+        }
+        // nothing has read from the zip yet, so close it now; on Windows it would otherwise keep the pack locked
+        copyTexturePackFile(pack, true);
+    }
+
+    /**
+     * Called before each read from a pack that is being read in place.  If the file no longer matches the stamp taken
+     * when it was opened, it is being rewritten, so switch to a copy before reading anything more from it.
+     */
+    private static void checkTexturePackFile(TexturePackCustom pack) {
+        if (!autoRefreshTextures || pack.origZip != null || pack.zipFile == null || texturePackCopyFailed) {
+            return;
+        }
+        synchronized (pack) {
+            if (pack.origZip != null || pack.zipFile == null || texturePackCopyFailed) {
+                return;
+            }
+            File file = pack.file;
+            if (file.lastModified() == pack.lastModified && file.length() == pack.fileSize &&
+                getZipDirectoryOffset(file) == pack.directoryOffset) {
+                return;
+            }
+            MCPatcherUtils.debug("%s changed on disk, reading from a copy from now on", file.getPath());
+            changedTexturePacks.add(file);
+            // the open ZipFile still has the original directory, which checkTexturePackChange compares against
+            replacedZipEntries = getZipEntries(pack.zipFile);
+            // other decoder threads may still be reading from the original, so it stays open until
+            // closeTexturePackFile.  If the file is too mangled to copy, wait for the watcher to see it settle.
+            texturePackCopyFailed = !copyTexturePackFile(pack, false);
+        }
+    }
+
+    private static boolean copyTexturePackFile(TexturePackCustom pack, boolean closeOriginal) {
         InputStream input = null;
         OutputStream output = null;
         ZipFile newZipFile = null;
+        File tmpFile = null;
         try {
-            pack.lastModified = pack.file.lastModified();
-            pack.tmpFile = File.createTempFile("tmpmc", ".zip");
-            pack.tmpFile.deleteOnExit();
-            MCPatcherUtils.close(pack.zipFile);
+            tmpFile = File.createTempFile("tmpmc", ".zip");
+            tmpFile.deleteOnExit();
             input = new FileInputStream(pack.file);
-            output = new FileOutputStream(pack.tmpFile);
+            output = new FileOutputStream(tmpFile);
             byte[] buffer = new byte[65536];
             while (true) {
                 int nread = input.read(buffer);
@@ -520,21 +890,33 @@ public class TextureUtils {
             }
             MCPatcherUtils.close(input);
             MCPatcherUtils.close(output);
-            newZipFile = new ZipFile(pack.tmpFile);
+            newZipFile = new ZipFile(tmpFile);
+            if (closeOriginal) {
+                MCPatcherUtils.close(pack.zipFile);
+            }
+            pack.tmpFile = tmpFile;
             pack.origZip = pack.zipFile;
             pack.zipFile = newZipFile;
             newZipFile = null;
+            tmpFile = null;
             MCPatcherUtils.debug("copied %s to %s, lastModified = %d", pack.file.getPath(), pack.tmpFile.getPath(), pack.lastModified);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         } finally {
             MCPatcherUtils.close(input);
             MCPatcherUtils.close(output);
             MCPatcherUtils.close(newZipFile);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
         }
     }
 
     public static void closeTexturePackFile(TexturePackCustom pack) {
+        replacedZipEntries = null;
+        texturePackCopyFailed = false;
         if (pack.origZip != null) {
             MCPatcherUtils.close(pack.zipFile);
             pack.zipFile = pack.origZip;
@@ -546,46 +928,370 @@ public class TextureUtils {
     }
 
     public static void checkTexturePackChange(Minecraft minecraft) {
-        if (!autoRefreshTextures || ++textureRefreshCount < 16) {
+        if (!autoRefreshTextures) {
             return;
         }
-        textureRefreshCount = 0;
-        TexturePackList list = minecraft.texturePackList;
-        if (!(list.getSelectedTexturePack() instanceof TexturePackCustom)) {
+        TexturePackBase pack = minecraft.texturePackList.getSelectedTexturePack();
+        if (!(pack instanceof TexturePackCustom) && !(pack instanceof TexturePackFolder)) {
+            pack = null;
+        }
+        if (pack != watchedTexturePack) {
+            watchedTexturePack = pack;
+            if (packWatcher == null) {
+                packWatcher = new PackWatcher();
+                packWatcher.start();
+            }
+            packWatcher.watch(pack);
             return;
         }
-        TexturePackCustom pack = (TexturePackCustom) list.getSelectedTexturePack();
-        long lastModified = pack.file.lastModified();
-        if (lastModified == pack.lastModified || lastModified == 0 || pack.lastModified == 0) {
+        if (pack == null || !packWatcher.isChanged()) {
             return;
         }
-        MCPatcherUtils.debug("%s lastModified changed from %d to %d", pack.file.getPath(), pack.lastModified, lastModified);
-        ZipFile zipFile = null;
+        Collection<String> changed;
+        ArrayList<String> preloads = null;
+        if (pack instanceof TexturePackCustom) {
+            TexturePackCustom custom = (TexturePackCustom) pack;
+            MCPatcherUtils.debug("reopening %s", custom.file.getPath());
+            if (changedTexturePacks.add(custom.file)) {
+                MCPatcherUtils.debug("%s is being edited, reading from a copy from now on", custom.file.getPath());
+            }
+            HashMap<String, Long> oldEntries;
+            synchronized (custom) {
+                oldEntries = (replacedZipEntries == null ? getZipEntries(custom.zipFile) : replacedZipEntries);
+                replacedZipEntries = null;
+            }
+            // decoders read straight from the zip, so none may be running while it is closed and reopened
+            preloads = suspendPreloadedImages();
+            try {
+                pack.closeTexturePackFile();
+                pack.openTexturePackFile();
+            } finally {
+                resumePreloadedImages();
+            }
+            changed = getChangedEntries(oldEntries, getZipEntries(custom.zipFile));
+        } else {
+            changed = packWatcher.getChangedResources();
+        }
+        packWatcher.watch(pack);
+        if (reloadResources(changed)) {
+            MCPatcherUtils.debug("reloaded %d changed resources in place", changed.size());
+            if (preloads != null) {
+                preloadImages(pack, preloads);
+            }
+            return;
+        }
+        MCPatcherUtils.debug("reloading %s", getTexturePackName(pack));
+        cache.clear();
+        lastTexturePack = null;
+        clearPreloadedImages();
+        TexturePackTracker.invalidate();
+        setTileSize();
+        minecraft.renderEngine.setTileSize(minecraft);
+        setFontRenderer();
+    }
+
+    private static boolean reloadResources(Collection<String> resources) {
+        for (String resource : resources) {
+            if (expectedColumns.containsKey(resource)) {
+                // tile size and texture FX depend on these
+                return false;
+            }
+        }
+        for (String resource : resources) {
+            MCPatcherUtils.debug("%s changed", resource);
+            cache.remove(resource);
+            synchronized (preloadedImages) {
+                Future<BufferedImage> future = preloadedImages.remove(resource);
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        }
+        return TexturePackTracker.resourcesChanged(resources);
+    }
+
+    private static HashMap<String, Long> getZipEntries(ZipFile zipFile) {
+        HashMap<String, Long> entries = new HashMap<String, Long>();
+        if (zipFile != null) {
+            Enumeration<? extends ZipEntry> e = zipFile.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.put("/" + entry.getName(), entry.getCrc() ^ (entry.getSize() << 32));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static ArrayList<String> getChangedEntries(HashMap<String, Long> oldEntries, HashMap<String, Long> newEntries) {
+        ArrayList<String> changed = new ArrayList<String>();
+        for (Map.Entry<String, Long> entry : newEntries.entrySet()) {
+            if (!entry.getValue().equals(oldEntries.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String name : oldEntries.keySet()) {
+            if (!newEntries.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    private static long getZipDirectoryOffset(File file) {
+        final int EOCD_SIZE = 22;
+        final int MAX_COMMENT = 65535;
+        RandomAccessFile raf = null;
         try {
-            zipFile = new ZipFile(pack.file);
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            if (length < EOCD_SIZE) {
+                return -1L;
+            }
+            // the end of central directory record is normally the last 22 bytes; search back over a comment otherwise
+            int tailSize = (int) Math.min(length, EOCD_SIZE);
+            byte[] tail = new byte[tailSize];
+            raf.seek(length - tailSize);
+            raf.readFully(tail);
+            int pos = findEndOfCentralDirectory(tail);
+            if (pos < 0) {
+                tailSize = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT);
+                tail = new byte[tailSize];
+                raf.seek(length - tailSize);
+                raf.readFully(tail);
+                pos = findEndOfCentralDirectory(tail);
+                if (pos < 0) {
+                    return -1L;
+                }
+            }
+            return (tail[pos + 16] & 0xffL) | ((tail[pos + 17] & 0xffL) << 8) |
+                ((tail[pos + 18] & 0xffL) << 16) | ((tail[pos + 19] & 0xffL) << 24);
         } catch (IOException e) {
-            // file is still being written
-            return;
+            return -1L;
         } finally {
-            MCPatcherUtils.close(zipFile);
-        }
-        pack.closeTexturePackFile();
-        list.updateAvailableTexturePacks();
-        for (TexturePackBase tp : list.availableTexturePacks()) {
-            if (!(tp instanceof TexturePackCustom)) {
-                continue;
-            }
-            TexturePackCustom tpc = (TexturePackCustom) tp;
-            if (tpc.file.equals(pack.file)) {
-                MCPatcherUtils.debug("setting new texture pack");
-                list.setTexturePack(tpc);
-                minecraft.renderEngine.setTileSize(minecraft);
+            MCPatcherUtils.close(raf);
+        }
+    }
+
+    private static int findEndOfCentralDirectory(byte[] tail) {
+        for (int i = tail.length - 22; i >= 0; i--) {
+            if (tail[i] == 0x50 && tail[i + 1] == 0x4b && tail[i + 2] == 0x05 && tail[i + 3] == 0x06) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class DecodeTask implements Callable<BufferedImage> {
+        private final TexturePackBase texturePack;
+        private final String resource;
+        private final int tileSize;
+
+        DecodeTask(TexturePackBase texturePack, String resource, int tileSize) {
+            this.texturePack = texturePack;
+            this.resource = resource;
+            this.tileSize = tileSize;
+        }
+
+        public BufferedImage call() throws Exception {
+            decodeLock.readLock().lock();
+            try {
+                return decodeImage(texturePack, resource, tileSize);
+            } finally {
+                decodeLock.readLock().unlock();
+            }
+        }
+    }
+
+    private static class PackWatcher extends Thread {
+        private File file;
+        private long lastModified;
+        private long fileSize;
+        private long directoryOffset;
+        private long seenModified;
+        private long seenSize;
+        private long seenTime;
+
+        private File folder;
+        private final HashMap<String, Long> fileStamps = new HashMap<String, Long>();
+        private final HashSet<String> changedResources = new HashSet<String>();
+
+        private volatile boolean changed;
+
+        PackWatcher() {
+            super("MCPatcher texture pack watcher");
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        synchronized void watch(TexturePackBase pack) {
+            changed = false;
+            file = null;
+            folder = null;
+            fileStamps.clear();
+            changedResources.clear();
+            seenTime = 0;
+            if (pack instanceof TexturePackCustom) {
+                TexturePackCustom custom = (TexturePackCustom) pack;
+                file = custom.file;
+                lastModified = custom.lastModified;
+                fileSize = custom.fileSize;
+                directoryOffset = custom.directoryOffset;
+                seenModified = lastModified;
+                seenSize = fileSize;
+            } else if (pack instanceof TexturePackFolder) {
+                folder = ((TexturePackFolder) pack).getFolder();
+            }
+        }
+
+        boolean isChanged() {
+            return changed;
+        }
+
+        synchronized ArrayList<String> getChangedResources() {
+            ArrayList<String> resources = new ArrayList<String>(changedResources);
+            changedResources.clear();
+            return resources;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    sleep(WATCH_INTERVAL);
+                    if (!changed) {
+                        poll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // exit
+            }
+        }
+
+        private synchronized void poll() {
+            if (file != null) {
+                pollFile();
+            } else if (folder != null) {
+                pollFolder();
+            }
+        }
+
+        private void pollFile() {
+            long modified = file.lastModified();
+            long size = file.length();
+            if (modified == 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (modified != seenModified || size != seenSize) {
+                // still being written, wait for it to settle
+                seenModified = modified;
+                seenSize = size;
+                seenTime = now;
+                return;
+            }
+            if (now - seenTime < WATCH_SETTLE_TIME) {
                 return;
             }
+            long offset = getZipDirectoryOffset(file);
+            if (modified == lastModified && size == fileSize && offset == directoryOffset) {
+                return;
+            }
+            ZipFile zipFile = null;
+            try {
+                zipFile = new ZipFile(file);
+            } catch (IOException e) {
+                seenTime = now;
+                return;
+            } finally {
+                MCPatcherUtils.close(zipFile);
+            }
+            MCPatcherUtils.debug("%s changed: lastModified %d -> %d, size %d -> %d",
+                file.getPath(), lastModified, modified, fileSize, size
+            );
+            changed = true;
+        }
+
+        private void pollFolder() {
+            // only files something has loaded can be reloaded in place, so those are the only ones stat'ed
+            HashSet<String> resources = TexturePackTracker.getDependencies();
+            resources.addAll(expectedColumns.keySet());
+            long now = System.currentTimeMillis();
+            for (String resource : resources) {
+                File f = new File(folder, resource.substring(1));
+                Long stamp = f.lastModified() ^ (f.length() << 32);
+                Long oldStamp = fileStamps.put(resource, stamp);
+                if (oldStamp != null && !oldStamp.equals(stamp)) {
+                    changedResources.add(resource);
+                    seenTime = now;
+                }
+            }
+            if (!changedResources.isEmpty() && now - seenTime >= WATCH_SETTLE_TIME) {
+                MCPatcherUtils.debug("%d files changed in %s", changedResources.size(), folder.getPath());
+                changed = true;
+            }
+        }
+    }
+
+    private static class TextureReloader implements TexturePackTracker.Listener {
+        TextureReloader() {
+        }
+
+        public boolean resourceChanged(String resource) {
+            LoadedTexture loaded = loadedTextures.get(resource);
+            if (loaded == null || loaded.key.startsWith("##")) {
+                return false;
+            }
+            try {
+                BufferedImage image = getResourceAsBufferedImage(resource);
+                if (image == null || image.getWidth() != loaded.width || image.getHeight() != loaded.height) {
+                    return false;
+                }
+                // setupTexture resizes RenderEngine.imageData as needed and applies mipmaps and compression
+                MCPatcherUtils.getMinecraft().renderEngine.setupTexture(image, loaded.texture);
+                if (loaded.key.startsWith("%blur%")) {
+                    GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+                    GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+                }
+                if (loaded.key.startsWith("%clamp%")) {
+                    GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_CLAMP);
+                    GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_CLAMP);
+                }
+                MCPatcherUtils.debug("reloaded texture %s (%d)", loaded.key, loaded.texture);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static class LoadedTexture {
+        final String key;
+        final String resource;
+        final int texture;
+        int width;
+        int height;
+
+        LoadedTexture(String key, String resource, int texture) {
+            this.key = key;
+            this.resource = resource;
+            this.texture = texture;
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private int count;
+
+        DecodeThreadFactory() {
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MCPatcher image decoder " + (++count));
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
         }
-        MCPatcherUtils.debug("selected texture pack not found after refresh, switching to default");
-        list.setTexturePack(list.getDefaultTexturePack());
-        minecraft.renderEngine.setTileSize(minecraft);
     }
 
     public static boolean bindImageBegin() {
@@ -31,6 +31,7 @@ abstract class TileOverride {
                 if (is != null) {
                     properties = new Properties();
                     properties.load(is);
+                    TexturePackTracker.addDependency(MCPatcherUtils.CTM_UTILS_CLASS, filePrefix + ".properties", CTMUtils.reloader);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
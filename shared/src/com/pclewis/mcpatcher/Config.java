@@ -5,24 +5,33 @@ import org.w3c.dom.*;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Config {
     private File xmlFile = null;
     Document xml;
     Element selectedProfile;
 
+    /*
+     * In-memory copy of the <config> values.  Reads never touch the DOM; writes update the cache and are copied
+     * back into the DOM by flushCache() before the document is saved or restructured.
+     */
+    private final ConcurrentHashMap<String, String> configValues = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> modConfigValues = new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+    private final HashSet<String> dirtyConfigValues = new HashSet<String>();
+    private final HashMap<String, HashSet<String>> dirtyModConfigValues = new HashMap<String, HashSet<String>>();
+    private volatile boolean modConfigLoaded;
+
     /*
     * <mcpatcher-profile>
     *     <config>
@@ -79,34 +88,44 @@ class Config {
     static final String VAL_EXTERNAL_JAR = "externalJar";
 
     private static final int XML_INDENT_AMOUNT = 2;
-    private static final String XSLT_REFORMAT =
-        "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
-            "<xsl:output method=\"xml\" omit-xml-declaration=\"no\"/>" +
-            "<xsl:strip-space elements=\"*\"/>" +
-            "<xsl:template match=\"@*|node()\">" +
-            "<xsl:copy>" +
-            "<xsl:apply-templates select=\"@*|node()\"/>" +
-            "</xsl:copy>" +
-            "</xsl:template>" +
-            "</xsl:stylesheet>";
+    private static final long SAVE_DELAY = 500L;
+
+    private final Object saveLock = new Object();
+    private final Object writeLock = new Object();
+    private SaveThread saveThread;
+    private String pendingXml;
+    private int pendingGeneration;
+    private int saveGeneration;
+    private int writtenGeneration;
 
     Config(File minecraftDir) throws ParserConfigurationException {
         xmlFile = new File(minecraftDir, "mcpatcher.xml");
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();
         boolean save = false;
-        if (xmlFile.exists()) {
+        // if the last save was interrupted, the finished .tmp or the previous .bak may be all that is left
+        for (File file : new File[]{xmlFile, getTmpFile(), getBakFile()}) {
+            if (!file.isFile()) {
+                continue;
+            }
             try {
-                xml = builder.parse(xmlFile);
+                xml = builder.parse(file);
             } catch (Exception e) {
                 e.printStackTrace();
+                continue;
+            }
+            if (file != xmlFile) {
+                MCPatcherUtils.warn("%s is missing or invalid, using %s", xmlFile.getName(), file.getName());
+                save = true;
             }
+            break;
         }
         if (xml == null) {
             xml = builder.newDocument();
             buildNewProperties();
             save = true;
         }
+        loadConfigValues();
 
         if (save) {
             saveProperties();
@@ -198,17 +217,18 @@ class Config {
     }
 
     String getConfigValue(String tag) {
-        return getText(getConfig(tag));
+        return configValues.get(tag);
     }
 
-    void setConfigValue(String tag, String value) {
-        Element element = getConfig(tag);
-        if (element != null) {
-            while (element.hasChildNodes()) {
-                element.removeChild(element.getFirstChild());
-            }
-            element.appendChild(xml.createTextNode(value));
-        }
+    synchronized void setConfigValue(String tag, String value) {
+        configValues.put(tag, value);
+        dirtyConfigValues.add(tag);
+    }
+
+    synchronized void removeConfigValue(String tag) {
+        configValues.remove(tag);
+        dirtyConfigValues.remove(tag);
+        remove(getConfig(tag));
     }
 
     static String getDefaultProfileName(String mcVersion) {
@@ -262,6 +282,7 @@ class Config {
         if (create) {
             profile = xml.createElement(TAG_MODS);
             if (selectedProfile != null) {
+                flushCache();
                 list = selectedProfile.getElementsByTagName(TAG_MOD);
                 for (int i = 0; i < list.getLength(); i++) {
                     Node node = list.item(i);
@@ -284,9 +305,11 @@ class Config {
         selectProfile(getConfigValue(TAG_SELECTED_PROFILE));
     }
 
-    void selectProfile(String profileName) {
+    synchronized void selectProfile(String profileName) {
+        flushCache();
         selectedProfile = findProfileByName(profileName, true);
         setConfigValue(TAG_SELECTED_PROFILE, profileName);
+        invalidateModConfigValues();
     }
 
     void deleteProfile(String profileName) {
@@ -294,6 +317,7 @@ class Config {
         Element profile = findProfileByName(profileName, false);
         if (profile != null) {
             if (profile == selectedProfile) {
+                invalidateModConfigValues();
                 selectedProfile = null;
             }
             root.removeChild(profile);
@@ -423,17 +447,140 @@ class Config {
     }
 
     String getModConfigValue(String mod, String tag) {
-        return getText(getModConfig(mod, tag));
+        if (!modConfigLoaded) {
+            loadModConfigValues();
+        }
+        ConcurrentHashMap<String, String> values = modConfigValues.get(mod);
+        return values == null ? null : values.get(tag);
+    }
+
+    synchronized void setModConfigValue(String mod, String tag, String value) {
+        if (!modConfigLoaded) {
+            loadModConfigValues();
+        }
+        ConcurrentHashMap<String, String> values = modConfigValues.get(mod);
+        if (values == null) {
+            values = new ConcurrentHashMap<String, String>();
+            modConfigValues.put(mod, values);
+        }
+        values.put(tag, value);
+        HashSet<String> dirty = dirtyModConfigValues.get(mod);
+        if (dirty == null) {
+            dirty = new HashSet<String>();
+            dirtyModConfigValues.put(mod, dirty);
+        }
+        dirty.add(tag);
+    }
+
+    synchronized void removeModConfigValue(String mod, String tag) {
+        ConcurrentHashMap<String, String> values = modConfigValues.get(mod);
+        if (values != null) {
+            values.remove(tag);
+        }
+        HashSet<String> dirty = dirtyModConfigValues.get(mod);
+        if (dirty != null) {
+            dirty.remove(tag);
+        }
+        remove(getModConfig(mod, tag));
+    }
+
+    /**
+     * Copy all modified cached values back into the DOM.
+     */
+    synchronized void flushCache() {
+        if (!dirtyConfigValues.isEmpty()) {
+            Element config = getConfig();
+            for (String tag : dirtyConfigValues) {
+                String value = configValues.get(tag);
+                if (value != null) {
+                    setText(config, tag, value);
+                }
+            }
+            dirtyConfigValues.clear();
+        }
+        if (selectedProfile != null) {
+            for (Map.Entry<String, HashSet<String>> entry : dirtyModConfigValues.entrySet()) {
+                ConcurrentHashMap<String, String> values = modConfigValues.get(entry.getKey());
+                if (values == null || entry.getValue().isEmpty()) {
+                    continue;
+                }
+                Element config = getModConfig(entry.getKey());
+                for (String tag : entry.getValue()) {
+                    String value = values.get(tag);
+                    if (value != null) {
+                        setText(config, tag, value);
+                    }
+                }
+            }
+        }
+        dirtyModConfigValues.clear();
     }
 
-    void setModConfigValue(String mod, String tag, String value) {
-        Element element = getModConfig(mod, tag);
-        if (element != null) {
-            while (element.hasChildNodes()) {
-                element.removeChild(element.getFirstChild());
+    /**
+     * Discard cached per-mod values so that they are reread from the selected profile on next access.  Call
+     * flushCache() first to keep pending changes.
+     */
+    synchronized void invalidateModConfigValues() {
+        modConfigLoaded = false;
+        modConfigValues.clear();
+        dirtyModConfigValues.clear();
+    }
+
+    private synchronized void loadConfigValues() {
+        configValues.clear();
+        dirtyConfigValues.clear();
+        loadValues(getConfig(), configValues);
+    }
+
+    private synchronized void loadModConfigValues() {
+        if (modConfigLoaded) {
+            return;
+        }
+        Element mods = getMods();
+        modConfigValues.clear();
+        dirtyModConfigValues.clear();
+        if (mods != null) {
+            NodeList list = mods.getElementsByTagName(TAG_MOD);
+            for (int i = 0; i < list.getLength(); i++) {
+                Element mod = (Element) list.item(i);
+                Element name = getChildElement(mod, TAG_NAME);
+                Element config = getChildElement(mod, TAG_CONFIG1);
+                String modName = getText(name);
+                if (modName != null && config != null) {
+                    ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+                    loadValues(config, values);
+                    modConfigValues.put(modName, values);
+                }
+            }
+        }
+        modConfigLoaded = true;
+    }
+
+    private void loadValues(Element parent, Map<String, String> values) {
+        if (parent == null) {
+            return;
+        }
+        NodeList list = parent.getChildNodes();
+        for (int i = 0; i < list.getLength(); i++) {
+            Node node = list.item(i);
+            if (node instanceof Element) {
+                String value = getText(node);
+                if (value != null) {
+                    values.put(((Element) node).getTagName(), value);
+                }
+            }
+        }
+    }
+
+    private static Element getChildElement(Element parent, String tag) {
+        NodeList list = parent.getChildNodes();
+        for (int i = 0; i < list.getLength(); i++) {
+            Node node = list.item(i);
+            if (node instanceof Element && tag.equals(((Element) node).getTagName())) {
+                return (Element) node;
             }
-            element.appendChild(xml.createTextNode(value));
         }
+        return null;
     }
 
     private void buildNewProperties() {
@@ -455,30 +602,224 @@ class Config {
      * @return true if successful
      */
     boolean saveProperties() {
-        boolean saved = false;
-        if (xml != null && xmlFile != null) {
+        String text = serialize();
+        if (text == null) {
+            return false;
+        }
+        int generation;
+        synchronized (saveLock) {
+            pendingXml = null;
+            generation = ++saveGeneration;
+        }
+        return writeProperties(text, generation);
+    }
+
+    /**
+     * Queue a save of all properties to mcpatcher.xml.  Requests made within a short interval of each other are
+     * combined into a single write on a background thread.
+     */
+    void saveLater() {
+        String text = serialize();
+        if (text == null) {
+            return;
+        }
+        synchronized (saveLock) {
+            pendingXml = text;
+            pendingGeneration = ++saveGeneration;
+            if (saveThread == null) {
+                saveThread = new SaveThread();
+                saveThread.start();
+            }
+            saveLock.notifyAll();
+        }
+    }
+
+    private synchronized String serialize() {
+        flushCache();
+        if (xml == null || xmlFile == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        NodeList list = xml.getChildNodes();
+        for (int i = 0; i < list.getLength(); i++) {
+            Node node = list.item(i);
+            if (node instanceof Element) {
+                writeElement(sb, (Element) node, 0);
+            } else if (node instanceof Comment) {
+                writeComment(sb, (Comment) node, 0);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void writeElement(StringBuilder sb, Element element, int depth) {
+        for (int i = depth * XML_INDENT_AMOUNT; i > 0; i--) {
+            sb.append(' ');
+        }
+        sb.append('<').append(element.getTagName());
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            sb.append(' ').append(attr.getName()).append("=\"");
+            escape(sb, attr.getValue());
+            sb.append('"');
+        }
+        NodeList list = element.getChildNodes();
+        boolean hasElements = false;
+        String text = "";
+        for (int i = 0; i < list.getLength(); i++) {
+            Node node = list.item(i);
+            if (node instanceof Element || node instanceof Comment) {
+                hasElements = true;
+            } else if (node instanceof Text) {
+                text += ((Text) node).getData();
+            }
+        }
+        if (hasElements) {
+            sb.append(">\n");
+            for (int i = 0; i < list.getLength(); i++) {
+                Node node = list.item(i);
+                if (node instanceof Element) {
+                    writeElement(sb, (Element) node, depth + 1);
+                } else if (node instanceof Comment) {
+                    writeComment(sb, (Comment) node, depth + 1);
+                }
+            }
+            for (int i = depth * XML_INDENT_AMOUNT; i > 0; i--) {
+                sb.append(' ');
+            }
+            sb.append("</").append(element.getTagName()).append(">\n");
+        } else if (text.trim().equals("")) {
+            sb.append("/>\n");
+        } else {
+            sb.append('>');
+            escape(sb, text);
+            sb.append("</").append(element.getTagName()).append(">\n");
+        }
+    }
+
+    private static void writeComment(StringBuilder sb, Comment comment, int depth) {
+        for (int i = depth * XML_INDENT_AMOUNT; i > 0; i--) {
+            sb.append(' ');
+        }
+        sb.append("<!--").append(comment.getData()).append("-->\n");
+    }
+
+    private static void escape(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+
+                case '<':
+                    sb.append("&lt;");
+                    break;
+
+                case '>':
+                    sb.append("&gt;");
+                    break;
+
+                case '"':
+                    sb.append("&quot;");
+                    break;
+
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+    }
+
+    private boolean writeProperties(String text, int generation) {
+        synchronized (writeLock) {
+            if (generation < writtenGeneration) {
+                return true;
+            }
+            File tmpFile = getTmpFile();
             FileOutputStream os = null;
+            Writer writer = null;
+            boolean written = false;
+            boolean saved = false;
             try {
-                TransformerFactory factory = TransformerFactory.newInstance();
-                Transformer trans;
-                try {
-                    factory.setAttribute("indent-number", XML_INDENT_AMOUNT);
-                    trans = factory.newTransformer(new StreamSource(new StringReader(XSLT_REFORMAT)));
-                    trans.setOutputProperty(OutputKeys.INDENT, "yes");
-                    trans.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "" + XML_INDENT_AMOUNT);
-                } catch (Throwable e) {
-                    trans = factory.newTransformer();
+                os = new FileOutputStream(tmpFile);
+                writer = new OutputStreamWriter(os, "UTF-8");
+                writer.write(text);
+                writer.flush();
+                os.getFD().sync();
+                writer.close();
+                writer = null;
+                os = null;
+                written = true;
+                if (!tmpFile.renameTo(xmlFile)) {
+                    // Windows will not rename over an existing file.  Move the old copy aside rather than deleting
+                    // it so that a valid file survives a crash at any point.
+                    File bakFile = getBakFile();
+                    bakFile.delete();
+                    if (xmlFile.exists() && !xmlFile.renameTo(bakFile)) {
+                        throw new IOException("could not rename " + xmlFile + " to " + bakFile);
+                    }
+                    if (!tmpFile.renameTo(xmlFile)) {
+                        throw new IOException("could not rename " + tmpFile + " to " + xmlFile);
+                    }
                 }
-                DOMSource source = new DOMSource(xml);
-                os = new FileOutputStream(xmlFile);
-                trans.transform(source, new StreamResult(new OutputStreamWriter(os, "UTF-8")));
+                writtenGeneration = generation;
                 saved = true;
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
+                MCPatcherUtils.close(writer);
                 MCPatcherUtils.close(os);
+                if (!written) {
+                    tmpFile.delete();
+                }
+            }
+            return saved;
+        }
+    }
+
+    private File getTmpFile() {
+        return new File(xmlFile.getParentFile(), xmlFile.getName() + ".tmp");
+    }
+
+    private File getBakFile() {
+        return new File(xmlFile.getParentFile(), xmlFile.getName() + ".bak");
+    }
+
+    private class SaveThread extends Thread {
+        SaveThread() {
+            super("MCPatcher config writer");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    synchronized (saveLock) {
+                        while (pendingXml == null) {
+                            saveLock.wait();
+                        }
+                    }
+                    sleep(SAVE_DELAY);
+                    String text;
+                    int generation;
+                    synchronized (saveLock) {
+                        text = pendingXml;
+                        generation = pendingGeneration;
+                        pendingXml = null;
+                    }
+                    if (text != null) {
+                        writeProperties(text, generation);
+                    }
+                }
+            } catch (InterruptedException e) {
+                synchronized (saveLock) {
+                    saveThread = null;
+                }
             }
         }
-        return saved;
     }
 }
@@ -3,12 +3,12 @@ package com.pclewis.mcpatcher;
 import net.minecraft.client.Minecraft;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
-import java.io.Closeable;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.zip.ZipFile;
 
 /**
@@ -40,8 +40,14 @@ public class MCPatcherUtils {
     public static final String GL11_CLASS = "org.lwjgl.opengl.GL11";
 
     public static final String TILE_SIZE_CLASS = "com.pclewis.mcpatcher.mod.TileSize";
+    public static final String TEXTURE_PACK_TRACKER_CLASS = "com.pclewis.mcpatcher.mod.TexturePackTracker";
+    public static final String DIRECT_BUFFER_POOL_CLASS = "com.pclewis.mcpatcher.mod.DirectBufferPool";
     public static final String TEXTURE_UTILS_CLASS = "com.pclewis.mcpatcher.mod.TextureUtils";
+    public static final String TEXTURE_UPLOADER_CLASS = "com.pclewis.mcpatcher.mod.TextureUploader";
+    public static final String MIPMAP_HELPER_CLASS = "com.pclewis.mcpatcher.mod.MipmapHelper";
+    public static final String TEXTURE_COMPRESSOR_CLASS = "com.pclewis.mcpatcher.mod.TextureCompressor";
     public static final String CUSTOM_ANIMATION_CLASS = "com.pclewis.mcpatcher.mod.CustomAnimation";
+    public static final String FRAME_ATLAS_CLASS = "com.pclewis.mcpatcher.mod.FrameAtlas";
     public static final String FONT_UTILS_CLASS = "com.pclewis.mcpatcher.mod.FontUtils";
     public static final String RANDOM_MOBS_CLASS = "com.pclewis.mcpatcher.mod.MobRandomizer";
     public static final String MOB_OVERLAY_CLASS = "com.pclewis.mcpatcher.mod.MobOverlay";
@@ -341,7 +347,7 @@ public class MCPatcherUtils {
      */
     public static void remove(String mod, String tag) {
         if (config != null) {
-            config.remove(config.getModConfig(mod, tag));
+            config.removeModConfigValue(mod, tag);
         }
     }
 
@@ -352,7 +358,7 @@ public class MCPatcherUtils {
      */
     static void remove(String tag) {
         if (config != null) {
-            config.remove(config.getConfig(tag));
+            config.removeConfigValue(tag);
         }
     }
 
@@ -442,6 +448,80 @@ public class MCPatcherUtils {
         return image;
     }
 
+    /**
+     * Attempts to read image dimensions without decoding the image.  PNG files are handled by reading the IHDR chunk
+     * directly; other formats go through the ImageIO reader's header parsing.  Closes input stream regardless of
+     * success or failure.
+     *
+     * @param input open input stream
+     * @return {width, height} or null
+     */
+    public static int[] readImageSize(InputStream input) {
+        if (input == null) {
+            return null;
+        }
+        ImageInputStream iis = null;
+        try {
+            if (!input.markSupported()) {
+                input = new BufferedInputStream(input, PNG_HEADER_SIZE);
+            }
+            input.mark(PNG_HEADER_SIZE);
+            byte[] header = new byte[PNG_HEADER_SIZE];
+            DataInputStream data = new DataInputStream(input);
+            try {
+                data.readFully(header);
+            } catch (EOFException e) {
+                return null;
+            }
+            if (isPNGHeader(header)) {
+                int width = getInt(header, 16);
+                int height = getInt(header, 20);
+                return width > 0 && height > 0 ? new int[]{width, height} : null;
+            }
+            input.reset();
+            iis = ImageIO.createImageInputStream(input);
+            if (iis != null) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(iis, true, true);
+                        return new int[]{reader.getWidth(0), reader.getHeight(0)};
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (iis != null) {
+                try {
+                    iis.close();
+                } catch (IOException e) {
+                }
+            }
+            close(input);
+        }
+        return null;
+    }
+
+    private static final int PNG_HEADER_SIZE = 24;
+    private static final byte[] PNG_SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'};
+
+    private static boolean isPNGHeader(byte[] header) {
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (header[i] != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
     /**
      * Get array of rgb values from image.
      *
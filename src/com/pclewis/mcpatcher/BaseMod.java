@@ -33,6 +33,10 @@ public final class BaseMod extends Mod {
 
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.UTILS_CLASS));
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.CONFIG_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.CONFIG_CLASS + "$SaveThread"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_PACK_TRACKER_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_PACK_TRACKER_CLASS + "$Listener"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.DIRECT_BUFFER_POOL_CLASS));
     }
 
     class ConfigPanel extends ModConfigPanel {
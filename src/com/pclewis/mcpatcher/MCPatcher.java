@@ -149,6 +149,13 @@ final public class MCPatcher {
         }
     }
 
+    static void saveLater() {
+        if (!ignoreSavedMods && modList != null && MCPatcherUtils.config.selectedProfile != null) {
+            modList.updateProperties();
+            MCPatcherUtils.config.saveLater();
+        }
+    }
+
     static void checkInterrupt() throws InterruptedException {
         Thread.sleep(0);
     }
@@ -181,7 +181,7 @@ class MainForm {
                 });
                 if (fd.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
                     if (MCPatcher.setMinecraft(fd.getSelectedFile(), false)) {
-                        MCPatcher.saveProperties();
+                        MCPatcher.saveLater();
                         updateModList();
                     } else {
                         showCorruptJarError(fd.getSelectedFile());
@@ -630,7 +630,7 @@ class MainForm {
                 }
             }
         }
-        MCPatcher.saveProperties();
+        MCPatcher.saveLater();
     }
 
     private void loadOptions() {
@@ -500,6 +500,7 @@ class ModList {
         if (mods == null) {
             return;
         }
+        config.flushCache();
         HashMap<String, Element> oldElements = new HashMap<String, Element>();
         while (mods.hasChildNodes()) {
             Node node = mods.getFirstChild();
@@ -526,6 +527,7 @@ class ModList {
                 oldElements.remove(mod.getName());
             }
         }
+        config.invalidateModConfigValues();
     }
 
     public static boolean isExperimental(String name) {
@@ -51,6 +51,7 @@ public class GLSLShader extends Mod {
         classMods.add(new WorldRendererMod());
 
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.SHADERS_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.SHADERS_CLASS + "$Uniform"));
     }
 
     private class MinecraftMod extends BaseMod.MinecraftMod {
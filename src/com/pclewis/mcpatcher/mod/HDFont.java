@@ -20,6 +20,7 @@ public class HDFont extends Mod {
         classMods.add(new FontRendererMod());
 
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.FONT_UTILS_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.FONT_UTILS_CLASS + "$WidthCache"));
     }
 
     private class FontRendererMod extends BaseMod.FontRendererMod {
@@ -71,11 +71,20 @@ public class HDTexture extends Mod {
 
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TILE_SIZE_CLASS));
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS));
-        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS + "$1"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS + "$DecodeTask"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS + "$DecodeThreadFactory"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS + "$PackWatcher"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS + "$TextureReloader"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UTILS_CLASS + "$LoadedTexture"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_UPLOADER_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.MIPMAP_HELPER_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.TEXTURE_COMPRESSOR_CLASS));
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.CUSTOM_ANIMATION_CLASS));
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.CUSTOM_ANIMATION_CLASS + "$Delegate"));
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.CUSTOM_ANIMATION_CLASS + "$Tile"));
         filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.CUSTOM_ANIMATION_CLASS + "$Strip"));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.FRAME_ATLAS_CLASS));
+        filesToAdd.add(ClassMap.classNameToFilename(MCPatcherUtils.FRAME_ATLAS_CLASS + "$Frame"));
     }
 
     private class RenderEngineMod extends ClassMod {
@@ -85,11 +94,15 @@ public class HDTexture extends Mod {
             final MethodRef setupTexture = new MethodRef(getDeobfClass(), "setupTexture", "(Ljava/awt/image/BufferedImage;I)V");
             final MethodRef registerTextureFX = new MethodRef(getDeobfClass(), "registerTextureFX", "(LTextureFX;)V");
             final MethodRef glTexSubImage2D = new MethodRef(MCPatcherUtils.GL11_CLASS, "glTexSubImage2D", "(IIIIIIIILjava/nio/ByteBuffer;)V");
+            final MethodRef glTexImage2D = new MethodRef(MCPatcherUtils.GL11_CLASS, "glTexImage2D", "(IIIIIIIILjava/nio/ByteBuffer;)V");
             final FieldRef imageData = new FieldRef(getDeobfClass(), "imageData", "Ljava/nio/ByteBuffer;");
             final FieldRef textureList = new FieldRef(getDeobfClass(), "textureList", "Ljava/util/List;");
             final MethodRef getTexture = new MethodRef(getDeobfClass(), "getTexture", "(Ljava/lang/String;)I");
             final MethodRef getImageRGB = new MethodRef(getDeobfClass(), "getImageRGB", "(Ljava/awt/image/BufferedImage;[I)[I");
             final MethodRef readTextureImageData = new MethodRef(getDeobfClass(), "readTextureImageData", "(Ljava/lang/String;)[I");
+            final MethodRef deleteTexture = new MethodRef(getDeobfClass(), "deleteTexture", "(I)V");
+            final MethodRef glDeleteTextures = new MethodRef(MCPatcherUtils.GL11_CLASS, "glDeleteTextures", "(Ljava/nio/IntBuffer;)V");
+            final MethodRef bindImage = new MethodRef("TextureFX", "bindImage", "(LRenderEngine;)V");
 
             final int getInputStreamOpcode;
             final JavaRef getInputStream;
@@ -125,6 +138,19 @@ public class HDTexture extends Mod {
                 }
             }.setMethod(updateDynamicTextures));
 
+            classSignatures.add(new BytecodeSignature() {
+                @Override
+                public String getMatchExpression() {
+                    if (getMethodInfo().getDescriptor().equals("(I)V")) {
+                        return buildExpression(
+                            reference(INVOKESTATIC, glDeleteTextures)
+                        );
+                    } else {
+                        return null;
+                    }
+                }
+            }.setMethod(deleteTexture));
+
             memberMappers.add(new FieldMapper(imageData));
             memberMappers.add(new FieldMapper(textureList));
             memberMappers.add(new MethodMapper(registerTextureFX));
@@ -358,6 +384,53 @@ public class HDTexture extends Mod {
                 }
             }.targetMethod(setupTexture));
 
+            patches.add(new BytecodePatch() {
+                @Override
+                public String getDescription() {
+                    return "GL11.glTexImage2D -> TextureCompressor.glTexImage2D";
+                }
+
+                @Override
+                public String getMatchExpression() {
+                    return buildExpression(
+                        reference(INVOKESTATIC, glTexImage2D)
+                    );
+                }
+
+                @Override
+                public byte[] getReplacementBytes() throws IOException {
+                    return buildCode(
+                        ALOAD_1,
+                        reference(INVOKESTATIC, new MethodRef(MCPatcherUtils.TEXTURE_COMPRESSOR_CLASS, "glTexImage2D", "(IIIIIIIILjava/nio/ByteBuffer;Ljava/awt/image/BufferedImage;)V"))
+                    );
+                }
+            }.targetMethod(setupTexture));
+
+            patches.add(new BytecodePatch() {
+                @Override
+                public String getDescription() {
+                    return "TextureUtils.setupTexture(image, texture)";
+                }
+
+                @Override
+                public String getMatchExpression() {
+                    return buildExpression(
+                        RETURN,
+                        BinaryRegex.end()
+                    );
+                }
+
+                @Override
+                public byte[] getReplacementBytes() throws IOException {
+                    return buildCode(
+                        ALOAD_1,
+                        ILOAD_2,
+                        reference(INVOKESTATIC, new MethodRef(MCPatcherUtils.TEXTURE_UTILS_CLASS, "setupTexture", "(Ljava/awt/image/BufferedImage;I)V")),
+                        RETURN
+                    );
+                }
+            }.targetMethod(setupTexture));
+
             patches.add(new BytecodePatch() {
                 @Override
                 public String getDescription() {
@@ -429,6 +502,98 @@ public class HDTexture extends Mod {
                     );
                 }
             }.targetMethod(updateDynamicTextures));
+
+            patches.add(new BytecodePatch() {
+                @Override
+                public String getDescription() {
+                    return "GL11.glTexSubImage2D -> TextureUtils.glTexSubImage2D";
+                }
+
+                @Override
+                public String getMatchExpression() {
+                    return buildExpression(
+                        reference(INVOKESTATIC, glTexSubImage2D)
+                    );
+                }
+
+                @Override
+                public byte[] getReplacementBytes() throws IOException {
+                    return buildCode(
+                        reference(INVOKESTATIC, new MethodRef(MCPatcherUtils.TEXTURE_UTILS_CLASS, "glTexSubImage2D", "(IIIIIIIILjava/nio/ByteBuffer;)V"))
+                    );
+                }
+            }.targetMethod(updateDynamicTextures));
+
+            patches.add(new BytecodePatch.InsertAfter() {
+                @Override
+                public String getDescription() {
+                    return "record TextureFX texture for mipmap updates";
+                }
+
+                @Override
+                public String getMatchExpression() {
+                    return buildExpression(
+                        BinaryRegex.capture(BytecodeMatcher.anyALOAD),
+                        ALOAD_0,
+                        reference(INVOKEVIRTUAL, bindImage)
+                    );
+                }
+
+                @Override
+                public byte[] getInsertBytes() throws IOException {
+                    return buildCode(
+                        // TextureUtils.bindTextureFX(textureFX, this);
+                        getCaptureGroup(1),
+                        ALOAD_0,
+                        reference(INVOKESTATIC, new MethodRef(MCPatcherUtils.TEXTURE_UTILS_CLASS, "bindTextureFX", "(LTextureFX;LRenderEngine;)V"))
+                    );
+                }
+            }.targetMethod(updateDynamicTextures));
+
+            patches.add(new BytecodePatch.InsertAfter() {
+                @Override
+                public String getDescription() {
+                    return "TextureUtils.deleteTexture(texture)";
+                }
+
+                @Override
+                public String getMatchExpression() {
+                    return buildExpression(
+                        reference(INVOKESTATIC, glDeleteTextures)
+                    );
+                }
+
+                @Override
+                public byte[] getInsertBytes() throws IOException {
+                    return buildCode(
+                        // TextureUtils.deleteTexture(texture);
+                        ILOAD_1,
+                        reference(INVOKESTATIC, new MethodRef(MCPatcherUtils.TEXTURE_UTILS_CLASS, "deleteTexture", "(I)V"))
+                    );
+                }
+            }.targetMethod(deleteTexture));
+
+            patches.add(new BytecodePatch() {
+                @Override
+                public String getDescription() {
+                    return "TextureUtils.beginGetTexture(key)";
+                }
+
+                @Override
+                public String getMatchExpression() {
+                    return buildExpression(
+                        BinaryRegex.begin()
+                    );
+                }
+
+                @Override
+                public byte[] getReplacementBytes() throws IOException {
+                    return buildCode(
+                        ALOAD_1,
+                        reference(INVOKESTATIC, new MethodRef(MCPatcherUtils.TEXTURE_UTILS_CLASS, "beginGetTexture", "(Ljava/lang/String;)V"))
+                    );
+                }
+            }.targetMethod(getTexture));
         }
     }
 
@@ -913,6 +1078,8 @@ public class HDTexture extends Mod {
             patches.add(new AddFieldPatch(new FieldRef(getDeobfClass(), "origZip", "Ljava/util/zip/ZipFile;")));
             patches.add(new AddFieldPatch(new FieldRef(getDeobfClass(), "tmpFile", "Ljava/io/File;")));
             patches.add(new AddFieldPatch(new FieldRef(getDeobfClass(), "lastModified", "J")));
+            patches.add(new AddFieldPatch(new FieldRef(getDeobfClass(), "fileSize", "J")));
+            patches.add(new AddFieldPatch(new FieldRef(getDeobfClass(), "directoryOffset", "J")));
 
             String methodDescriptor = haveITexturePack ? "(LRenderEngine;)V" : "()V";
 
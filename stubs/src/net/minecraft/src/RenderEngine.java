@@ -13,6 +13,8 @@ abstract public class RenderEngine {
 
     abstract public void createTextureFromBytes(int[] rgb, int width, int height, int texture);
 
+    abstract public void setupTexture(BufferedImage image, int texture);
+
     abstract public void setTileSize(Minecraft minecraft);
 
     abstract public int allocateAndSetupTexture(BufferedImage image);
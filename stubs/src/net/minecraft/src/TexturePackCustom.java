@@ -10,4 +10,6 @@ public class TexturePackCustom extends TexturePackBase {
     public File tmpFile;
     public ZipFile origZip;
     public long lastModified;
+    public long fileSize;
+    public long directoryOffset;
 }